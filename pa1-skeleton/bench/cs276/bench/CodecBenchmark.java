@@ -0,0 +1,271 @@
+package cs276.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import cs276.assignments.BaseIndex;
+import cs276.assignments.PostingIterator;
+import cs276.assignments.PostingList;
+import cs276.util.IndexCompression;
+
+/*
+ * Micro benchmarks for the posting codecs and for PostingList merge and
+ * intersect. Every operation is warmed up before it is timed and reports
+ * ns per posting; the codecs also report their encoded bytes per posting.
+ *
+ * Two workloads are measured: posting lists drawn from a Zipfian term
+ * distribution over a large collection, and the small hand made lists from
+ * IndexCompression (createThePostingsList and friends).
+ */
+public class CodecBenchmark {
+
+    private static final int NUM_DOCS = 1 << 20;
+    private static final int[] ZIPF_RANKS = { 1, 10, 100, 1000, 10000 };
+
+    // Untimed runs before every measurement
+    private static long warmupMillis = 500;
+    // Timed runs last at least this long
+    private static long measureMillis = 1000;
+    // Keeps the JIT from discarding the benchmarked work
+    private static volatile long sink;
+
+    /* One benchmarked operation, returns a value that depends on its work */
+    private interface Op {
+        long run() throws IOException;
+    }
+
+    /* Named set of posting lists */
+    private static class Workload {
+        final String name;
+        final PostingList[] lists;
+        final int numPostings;
+
+        Workload(String name, List<PostingList> lists) {
+            this.name = name;
+            this.lists = lists.toArray(new PostingList[lists.size()]);
+            int n = 0;
+            for (PostingList p : lists) {
+                n += p.size();
+            }
+            this.numPostings = n;
+        }
+    }
+
+    /*
+     * A term of rank r occurs in a document with probability 1 / (2 r), so
+     * the lists have Zipfian lengths and geometric gaps
+     */
+    private static Workload zipfWorkload() {
+        Random random = new Random(276);
+        List<PostingList> lists = new ArrayList<PostingList>();
+        for (int rank : ZIPF_RANKS) {
+            double p = 0.5 / rank;
+            PostingList posting = new PostingList(rank);
+            for (int docId = 1; docId <= NUM_DOCS; docId++) {
+                if (random.nextDouble() < p) posting.add(docId);
+            }
+            lists.add(posting);
+        }
+        return new Workload("zipf", lists);
+    }
+
+    private static Workload fixtureWorkload() {
+        int[][] fixtures = {
+            IndexCompression.createThePostingsList(),
+            IndexCompression.createFacultyPostingsList(),
+            IndexCompression.createStudentPostingsList(),
+            IndexCompression.createBiologyPostingsList(),
+            IndexCompression.createAdvancedPostingsList(),
+            IndexCompression.createAnthropologyPostingsList(),
+            IndexCompression.CreateClassicsPostingsList(),
+            IndexCompression.createLinguisticsPostingsList()
+        };
+        List<PostingList> lists = new ArrayList<PostingList>();
+        for (int i = 0; i < fixtures.length; i++) {
+            lists.add(new PostingList(i, fixtures[i]));
+        }
+        return new Workload("fixtures", lists);
+    }
+
+    /* Warm op up, then time it and return ns per posting */
+    private static double measure(Op op, int postingsPerRun) throws IOException {
+        long checksum = 0;
+        long end = System.nanoTime() + warmupMillis * 1000000L;
+        while (System.nanoTime() < end) {
+            checksum += op.run();
+        }
+
+        long runs = 0;
+        long start = System.nanoTime();
+        end = start + measureMillis * 1000000L;
+        long now;
+        do {
+            checksum += op.run();
+            runs++;
+            now = System.nanoTime();
+        } while (now < end);
+
+        sink += checksum;
+        return (double) (now - start) / runs / Math.max(1, postingsPerRun);
+    }
+
+    private static BaseIndex loadCodec(String name) {
+        try {
+            return (BaseIndex) Class.forName("cs276.assignments." + name + "Index").getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new RuntimeException("Unknown codec: " + name, e);
+        }
+    }
+
+    /* Encode, decode and iterate over every list of the workload */
+    private static void benchCodec(final String codec, final Workload workload) throws IOException {
+        final BaseIndex index = loadCodec(codec);
+        File file = File.createTempFile("bench", ".index");
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final FileChannel fc = raf.getChannel();
+
+        Op encode = new Op() {
+            @Override
+            public long run() throws IOException {
+                fc.position(0);
+                for (PostingList p : workload.lists) {
+                    index.writePosting(fc, p);
+                }
+                return fc.position();
+            }
+        };
+        long bytes = encode.run();
+        final ByteBuffer mapped = fc.map(FileChannel.MapMode.READ_ONLY, 0, bytes);
+
+        Op decode = new Op() {
+            @Override
+            public long run() {
+                ByteBuffer buf = mapped.duplicate();
+                long checksum = 0;
+                for (int i = 0; i < workload.lists.length; i++) {
+                    checksum += index.readPosting(buf).getLast();
+                }
+                return checksum;
+            }
+        };
+        Op iterate = new Op() {
+            @Override
+            public long run() {
+                ByteBuffer buf = mapped.duplicate();
+                long checksum = 0;
+                for (int i = 0; i < workload.lists.length; i++) {
+                    PostingIterator iter = index.iterator(buf);
+                    while (iter.next() != PostingIterator.NO_MORE_DOCS) {
+                        checksum += iter.docId();
+                    }
+                }
+                return checksum;
+            }
+        };
+
+        double encodeNs = measure(encode, workload.numPostings);
+        double decodeNs = measure(decode, workload.numPostings);
+        double iterateNs = measure(iterate, workload.numPostings);
+        raf.close();
+        file.delete();
+
+        System.out.printf("%-9s %-6s %10.2f %10.2f %10.2f %10.2f%n", workload.name, codec,
+                (double) bytes / workload.numPostings, encodeNs, decodeNs, iterateNs);
+    }
+
+    /*
+     * Merge and intersect each adjacent pair of lists, and intersect the
+     * shorter one against an iterator over the longer one in every codec
+     */
+    private static void benchMergeIntersect(Workload workload, String[] codecs) throws IOException {
+        for (int i = 0; i + 1 < workload.lists.length; i++) {
+            final PostingList p1 = workload.lists[i];
+            final PostingList p2 = workload.lists[i + 1];
+            final PostingList shorter = p1.size() <= p2.size() ? p1 : p2;
+            final PostingList longer = shorter == p1 ? p2 : p1;
+            int n = p1.size() + p2.size();
+            String pair = workload.name + "[" + i + "," + (i + 1) + "]";
+
+            double mergeNs = measure(new Op() {
+                @Override
+                public long run() {
+                    return PostingList.merge(p1, p2).size();
+                }
+            }, n);
+            double intersectNs = measure(new Op() {
+                @Override
+                public long run() {
+                    return PostingList.intersect(shorter, longer).size();
+                }
+            }, n);
+            System.out.printf("%-16s %8d %8d %-12s %10.2f%n", pair, p1.size(), p2.size(), "merge", mergeNs);
+            System.out.printf("%-16s %8d %8d %-12s %10.2f%n", pair, p1.size(), p2.size(), "intersect", intersectNs);
+
+            for (String codec : codecs) {
+                final BaseIndex index = loadCodec(codec);
+                File file = File.createTempFile("bench", ".index");
+                file.deleteOnExit();
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                FileChannel fc = raf.getChannel();
+                index.writePosting(fc, longer);
+                final ByteBuffer mapped = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.position());
+
+                double leapNs = measure(new Op() {
+                    @Override
+                    public long run() {
+                        return PostingList.intersect(shorter, index.iterator(mapped.duplicate())).size();
+                    }
+                }, n);
+                raf.close();
+                file.delete();
+                System.out.printf("%-16s %8d %8d %-12s %10.2f%n", pair, p1.size(), p2.size(), "leap " + codec, leapNs);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> codecs = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-warmup") && i + 1 < args.length) {
+                warmupMillis = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-time") && i + 1 < args.length) {
+                measureMillis = Long.parseLong(args[++i]);
+            } else if (args[i].startsWith("-")) {
+                System.err.println("Usage: java cs276.bench.CodecBenchmark [codec ...] [-warmup ms] [-time ms]");
+                return;
+            } else {
+                codecs.add(args[i]);
+            }
+        }
+        if (codecs.isEmpty()) {
+            codecs.add("Basic");
+            codecs.add("VB");
+            codecs.add("Gamma");
+            codecs.add("PFor");
+            codecs.add("GroupVarint");
+        }
+        String[] codecNames = codecs.toArray(new String[codecs.size()]);
+
+        Workload[] workloads = { zipfWorkload(), fixtureWorkload() };
+
+        System.out.printf("%-9s %-6s %10s %10s %10s %10s%n", "workload", "codec", "bytes/post", "enc ns/p", "dec ns/p", "iter ns/p");
+        for (Workload workload : workloads) {
+            for (String codec : codecNames) {
+                benchCodec(codec, workload);
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%-16s %8s %8s %-12s %10s%n", "lists", "size1", "size2", "operation", "ns/posting");
+        for (Workload workload : workloads) {
+            benchMergeIntersect(workload, codecNames);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package cs276.assignments;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 public interface BaseIndex {
@@ -8,6 +9,12 @@ public interface BaseIndex {
     public static final int INT_BYTES = Integer.SIZE / Byte.SIZE;
 	
 	public PostingList readPosting (FileChannel fc) throws IOException;
+
+	/* Decode the posting at the buffer's position and leave it just past it */
+	public PostingList readPosting (ByteBuffer buf);
+
+	/* Iterate over the posting at the buffer's position, decoding lazily */
+	public PostingIterator iterator (ByteBuffer buf);
 	
 	public void writePosting (FileChannel fc, PostingList p) throws IOException;
 }
@@ -3,8 +3,6 @@ package cs276.assignments;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.ArrayList;
-import java.util.List;
 
 public class BasicIndex implements BaseIndex {
 
@@ -17,28 +15,95 @@ public class BasicIndex implements BaseIndex {
         int termId = buf.getInt();
         int docFreq = buf.getInt();
 
-        List<Integer> docIds = new ArrayList<Integer>(docFreq);
         buf = ByteBuffer.allocate(INT_BYTES * docFreq);
         fc.read(buf);
 
         buf.flip();
-        for (int i = 0; i < docFreq; i++) {
-            docIds.add(buf.getInt());
-        }
+        return decodePosting(termId, buf, docFreq);
+    }
+
+    @Override
+    public PostingList readPosting(ByteBuffer buf) {
+        int termId = buf.getInt();
+        int docFreq = buf.getInt();
+        return decodePosting(termId, buf, docFreq);
+    }
+
+    @Override
+    public PostingIterator iterator(ByteBuffer buf) {
+        buf.getInt();
+        int docFreq = buf.getInt();
+        PostingIterator iter = new BasicPostingIterator(buf, buf.position(), docFreq);
+        buf.position(buf.position() + INT_BYTES * docFreq);
+        return iter;
+    }
 
-        PostingList p = new PostingList(termId, docIds);
-        return p;
+    private static PostingList decodePosting(int termId, ByteBuffer buf, int docFreq) {
+        int[] docIds = new int[docFreq];
+        buf.asIntBuffer().get(docIds);
+        buf.position(buf.position() + INT_BYTES * docFreq);
+        return new PostingList(termId, docIds);
     }
 
     @Override
     public void writePosting(FileChannel fc, PostingList p) throws IOException {
-        ByteBuffer buf = ByteBuffer.allocate(INT_BYTES * (p.getList().size() + 2));
+        ByteBuffer buf = ByteBuffer.allocate(INT_BYTES * (p.size() + 2));
         buf.putInt(p.getTermId());
-        buf.putInt(p.getList().size());
-        for (int docId : p.getList()) {
-            buf.putInt(docId);
-        }
+        buf.putInt(p.size());
+        buf.asIntBuffer().put(p.getPostings(), 0, p.size());
+        buf.position(buf.limit());
         buf.flip();
         fc.write(buf);
     }
+
+    /*
+     * Doc ids are stored at a fixed width, so the posting already is its own
+     * skip table: advance binary searches the raw ints without decoding
+     */
+    private static class BasicPostingIterator implements PostingIterator {
+        private final ByteBuffer buf;
+        private final int start;
+        private final int docFreq;
+        private int index = -1;
+
+        BasicPostingIterator(ByteBuffer buf, int start, int docFreq) {
+            this.buf = buf;
+            this.start = start;
+            this.docFreq = docFreq;
+        }
+
+        private int get(int i) {
+            return buf.getInt(start + INT_BYTES * i);
+        }
+
+        @Override
+        public int docId() {
+            if (index < 0) return -1;
+            return index < docFreq ? get(index) : NO_MORE_DOCS;
+        }
+
+        @Override
+        public int next() {
+            if (index < docFreq) index++;
+            return docId();
+        }
+
+        @Override
+        public int advance(int target) {
+            int lo = Math.max(index, 0);
+            if (lo >= docFreq || get(lo) >= target) {
+                index = lo;
+                return docId();
+            }
+            /* get(lo) < target, find the first doc >= target after lo */
+            int hi = docFreq;
+            while (lo + 1 < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (get(mid) < target) lo = mid;
+                else hi = mid;
+            }
+            index = hi;
+            return docId();
+        }
+    }
 }
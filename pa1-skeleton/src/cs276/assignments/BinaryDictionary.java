@@ -0,0 +1,335 @@
+package cs276.assignments;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import cs276.util.Pair;
+
+/*
+ * Compact binary replacement for term.dict, doc.dict and posting.dict.
+ *
+ * Layout (big endian):
+ *   int MAGIC, int numTerms, int numTermIds, int numDocs, int BLOCK_SIZE, int maxTermBytes
+ *   long[numTermIds] posting offsets and int[numTermIds] doc frequencies, by term id
+ *   int[numTerms] term ids in sorted term order
+ *   int termBytesLen, int[numBlocks] block starts, byte[termBytesLen] terms
+ *   int docBytesLen, int[numDocs + 1] name starts, byte[docBytesLen] names, by doc id
+ *
+ * Terms are sorted by their UTF-8 bytes and front coded in blocks of
+ * BLOCK_SIZE: a block starts with a full term (length, bytes) and every
+ * following term is (shared prefix length, suffix length, suffix bytes),
+ * all lengths as VB style varints. Lookups binary search the block heads
+ * and then decode at most one block.
+ */
+public class BinaryDictionary {
+
+    private static final int MAGIC = 0x43534431; // "CSD1"
+    private static final int BLOCK_SIZE = 16;
+
+    private final int numTerms;
+    private final int maxTermBytes;
+    private final long[] offsets;
+    private final int[] docFreqs;
+    private final int[] sortedTermIds;
+    private final int[] blockStarts;
+    private final byte[] termBytes;
+    private final int[] docStarts;
+    private final byte[] docBytes;
+
+    private BinaryDictionary(ByteBuffer buf) throws IOException {
+        if (buf.getInt() != MAGIC) throw new IOException("Not a binary dictionary");
+        numTerms = buf.getInt();
+        int numTermIds = buf.getInt();
+        int numDocs = buf.getInt();
+        if (buf.getInt() != BLOCK_SIZE) throw new IOException("Unsupported dictionary block size");
+        maxTermBytes = buf.getInt();
+
+        offsets = new long[numTermIds];
+        buf.asLongBuffer().get(offsets);
+        buf.position(buf.position() + Long.SIZE / Byte.SIZE * numTermIds);
+        docFreqs = readInts(buf, numTermIds);
+        sortedTermIds = readInts(buf, numTerms);
+
+        termBytes = new byte[buf.getInt()];
+        blockStarts = readInts(buf, (numTerms + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        buf.get(termBytes);
+
+        docBytes = new byte[buf.getInt()];
+        docStarts = readInts(buf, numDocs + 1);
+        buf.get(docBytes);
+    }
+
+    private static int[] readInts(ByteBuffer buf, int n) {
+        int[] ints = new int[n];
+        buf.asIntBuffer().get(ints);
+        buf.position(buf.position() + BaseIndex.INT_BYTES * n);
+        return ints;
+    }
+
+    /* Load a dictionary with a single bulk read of the whole file */
+    public static BinaryDictionary read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel fc = raf.getChannel();
+            return new BinaryDictionary(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /* Term id of term, or -1 if it is not in the dictionary */
+    public int termId(String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        if (numTerms == 0 || key.length > maxTermBytes) return -1;
+
+        /* Last block whose head is <= key */
+        int lo = 0, hi = blockStarts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (compareHead(mid, key) <= 0) lo = mid;
+            else hi = mid - 1;
+        }
+
+        byte[] cur = new byte[maxTermBytes];
+        int[] pos = { blockStarts[lo] };
+        int len = readVInt(termBytes, pos);
+        System.arraycopy(termBytes, pos[0], cur, 0, len);
+        pos[0] += len;
+        int first = lo * BLOCK_SIZE;
+        int last = Math.min(first + BLOCK_SIZE, numTerms);
+        for (int i = first; i < last; i++) {
+            if (i > first) {
+                int prefix = readVInt(termBytes, pos);
+                int suffix = readVInt(termBytes, pos);
+                System.arraycopy(termBytes, pos[0], cur, prefix, suffix);
+                pos[0] += suffix;
+                len = prefix + suffix;
+            }
+            int cmp = compare(cur, 0, len, key, 0, key.length);
+            if (cmp == 0) return sortedTermIds[i];
+            if (cmp > 0) return -1;
+        }
+        return -1;
+    }
+
+    private int compareHead(int block, byte[] key) {
+        int[] pos = { blockStarts[block] };
+        int len = readVInt(termBytes, pos);
+        return compare(termBytes, pos[0], len, key, 0, key.length);
+    }
+
+    /* Position of the term's posting list in corpus.index, or -1 if it has none */
+    public long postingOffset(int termId) {
+        return termId < offsets.length ? offsets[termId] : -1;
+    }
+
+    public int docFreq(int termId) {
+        return docFreqs[termId];
+    }
+
+    /* Doc name of docId, or null if there is no such doc */
+    public String docName(int docId) {
+        if (docId < 0 || docId + 1 >= docStarts.length || docStarts[docId] == docStarts[docId + 1]) return null;
+        return new String(docBytes, docStarts[docId], docStarts[docId + 1] - docStarts[docId], StandardCharsets.UTF_8);
+    }
+
+    /* Largest doc id with a name, doc ids start at 1 */
+    public int maxDocId() {
+        return docStarts.length - 2;
+    }
+
+    /* Smallest doc id with a name, 0 if there are none */
+    public int minDocId() {
+        for (int docId = 0; docId + 1 < docStarts.length; docId++) {
+            if (docStarts[docId] != docStarts[docId + 1]) return docId;
+        }
+        return 0;
+    }
+
+    /* Every term -> term id, decoded block by block */
+    public Map<String, Integer> terms() {
+        Map<String, Integer> terms = new TreeMap<String, Integer>();
+        byte[] cur = new byte[maxTermBytes];
+        int[] pos = { 0 };
+        int len = 0;
+        for (int i = 0; i < numTerms; i++) {
+            if (i % BLOCK_SIZE == 0) {
+                pos[0] = blockStarts[i / BLOCK_SIZE];
+                len = readVInt(termBytes, pos);
+                System.arraycopy(termBytes, pos[0], cur, 0, len);
+                pos[0] += len;
+            } else {
+                int prefix = readVInt(termBytes, pos);
+                int suffix = readVInt(termBytes, pos);
+                System.arraycopy(termBytes, pos[0], cur, prefix, suffix);
+                pos[0] += suffix;
+                len = prefix + suffix;
+            }
+            terms.put(new String(cur, 0, len, StandardCharsets.UTF_8), sortedTermIds[i]);
+        }
+        return terms;
+    }
+
+    public static void write(File file, Map<String, Integer> termDict, Map<String, Integer> docDict,
+            Map<Integer, Pair<Long, Integer>> postingDict) throws IOException {
+        /* Sort terms by their UTF-8 bytes */
+        int numTerms = termDict.size();
+        final byte[][] terms = new byte[numTerms][];
+        Integer[] order = new Integer[numTerms];
+        int[] termIds = new int[numTerms];
+        int numTermIds = 0;
+        int maxTermBytes = 0;
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : termDict.entrySet()) {
+            terms[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            termIds[i] = entry.getValue();
+            numTermIds = Math.max(numTermIds, termIds[i] + 1);
+            maxTermBytes = Math.max(maxTermBytes, terms[i].length);
+            order[i] = i;
+            i++;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return BinaryDictionary.compare(terms[i1], 0, terms[i1].length, terms[i2], 0, terms[i2].length);
+            }
+        });
+
+        /* Front code the sorted terms */
+        ByteArrayBuilder termOut = new ByteArrayBuilder();
+        int[] blockStarts = new int[(numTerms + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        byte[] prev = null;
+        for (i = 0; i < numTerms; i++) {
+            byte[] term = terms[order[i]];
+            if (i % BLOCK_SIZE == 0) {
+                blockStarts[i / BLOCK_SIZE] = termOut.size();
+                termOut.writeVInt(term.length);
+                termOut.write(term, 0, term.length);
+            } else {
+                int prefix = 0;
+                int max = Math.min(prev.length, term.length);
+                while (prefix < max && prev[prefix] == term[prefix]) prefix++;
+                termOut.writeVInt(prefix);
+                termOut.writeVInt(term.length - prefix);
+                termOut.write(term, prefix, term.length - prefix);
+            }
+            prev = term;
+        }
+
+        /* Doc names by doc id */
+        int numDocs = 0;
+        for (int docId : docDict.values()) {
+            numDocs = Math.max(numDocs, docId + 1);
+        }
+        byte[][] docNames = new byte[numDocs][];
+        for (Map.Entry<String, Integer> entry : docDict.entrySet()) {
+            docNames[entry.getValue()] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeInt(numTerms);
+        out.writeInt(numTermIds);
+        out.writeInt(numDocs);
+        out.writeInt(BLOCK_SIZE);
+        out.writeInt(maxTermBytes);
+        for (int termId = 0; termId < numTermIds; termId++) {
+            Pair<Long, Integer> posting = postingDict.get(termId);
+            out.writeLong(posting == null ? -1 : posting.getFirst());
+        }
+        for (int termId = 0; termId < numTermIds; termId++) {
+            Pair<Long, Integer> posting = postingDict.get(termId);
+            out.writeInt(posting == null ? 0 : posting.getSecond());
+        }
+        for (i = 0; i < numTerms; i++) {
+            out.writeInt(termIds[order[i]]);
+        }
+        out.writeInt(termOut.size());
+        for (int blockStart : blockStarts) {
+            out.writeInt(blockStart);
+        }
+        termOut.writeTo(out);
+
+        int docBytesLen = 0;
+        for (byte[] name : docNames) {
+            if (name != null) docBytesLen += name.length;
+        }
+        out.writeInt(docBytesLen);
+        int start = 0;
+        for (byte[] name : docNames) {
+            out.writeInt(start);
+            if (name != null) start += name.length;
+        }
+        out.writeInt(start);
+        for (byte[] name : docNames) {
+            if (name != null) out.write(name);
+        }
+        out.close();
+    }
+
+    /* Unsigned lexicographic comparison of two byte ranges */
+    private static int compare(byte[] a, int aOff, int aLen, byte[] b, int bOff, int bLen) {
+        int n = Math.min(aLen, bLen);
+        for (int i = 0; i < n; i++) {
+            int cmp = (a[aOff + i] & 0xff) - (b[bOff + i] & 0xff);
+            if (cmp != 0) return cmp;
+        }
+        return aLen - bLen;
+    }
+
+    private static int readVInt(byte[] bytes, int[] pos) {
+        int number = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[pos[0]++];
+            number |= (b & 0b01111111) << shift;
+            shift += 7;
+        } while ((b & 0b10000000) != 0);
+        return number;
+    }
+
+    /* Growable byte array with varint writes */
+    private static class ByteArrayBuilder {
+        private byte[] bytes = new byte[1024];
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        void write(byte[] b, int off, int len) {
+            if (size + len > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + len));
+            }
+            System.arraycopy(b, off, bytes, size, len);
+            size += len;
+        }
+
+        void writeVInt(int number) {
+            byte[] b = new byte[5];
+            int n = 0;
+            while ((number & ~0b01111111) != 0) {
+                b[n++] = (byte) ((number & 0b01111111) | 0b10000000);
+                number >>>= 7;
+            }
+            b[n++] = (byte) number;
+            write(b, 0, n);
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.write(bytes, 0, size);
+        }
+    }
+}
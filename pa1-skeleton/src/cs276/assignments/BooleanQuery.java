@@ -0,0 +1,591 @@
+package cs276.assignments;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/*
+ * Boolean queries: terms combined with AND, OR, NOT and parentheses. NOT
+ * binds tightest, then AND, then OR, and terms written next to each other
+ * are ANDed. Operators must be upper case; "and" and "or" are plain terms.
+ * On a positional index a query can also hold phrases in double quotes and
+ * proximity pairs "a /k b", matching a and b at most k positions apart.
+ *
+ * A parsed query is a tree of nodes that opens into a matching tree of
+ * PostingIterators, evaluated lazily one doc at a time. AND leapfrogs its
+ * children with advance and OR merges them through a heap, so no union or
+ * intersection is ever built in memory.
+ */
+public abstract class BooleanQuery {
+
+    /* Where the leaves of a query get their postings from */
+    public interface Postings {
+        /* Iterator over the term's postings, or null if it is not indexed */
+        PostingIterator open(String term) throws IOException;
+
+        /* Iterator over the term's postings and positions, or null if it is not indexed */
+        PositionalPostingIterator openPositional(String term) throws IOException;
+
+        int docFreq(String term);
+
+        /* Doc ids run from minDocId() to maxDocId() */
+        int minDocId();
+
+        int maxDocId();
+    }
+
+    /* Upper bound on the number of docs matched, to order AND children */
+    abstract long cost(Postings postings);
+
+    public abstract PostingIterator iterator(Postings postings) throws IOException;
+
+    /* Whether line uses any operator, as opposed to a plain list of terms */
+    public static boolean hasOperators(String line) {
+        for (String token : tokenize(line)) {
+            if (isOperator(token)) return true;
+        }
+        return false;
+    }
+
+    private static boolean isOperator(String token) {
+        return token.equals("AND") || token.equals("OR") || token.equals("NOT") || isPunctuation(token.charAt(0))
+                || isProximity(token);
+    }
+
+    private static boolean isPunctuation(char c) {
+        return c == '(' || c == ')' || c == '"';
+    }
+
+    /* A "/k" proximity operator */
+    private static boolean isProximity(String token) {
+        if (token.length() < 2 || token.charAt(0) != '/') return false;
+        for (int i = 1; i < token.length(); i++) {
+            if (!Character.isDigit(token.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /* Split on whitespace, with each parenthesis and quote a token of its own */
+    private static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<String>();
+        int start = -1;
+        for (int i = 0; i <= line.length(); i++) {
+            char c = i < line.length() ? line.charAt(i) : ' ';
+            if (Character.isWhitespace(c) || isPunctuation(c)) {
+                if (start >= 0) tokens.add(line.substring(start, i));
+                start = -1;
+                if (isPunctuation(c)) tokens.add(String.valueOf(c));
+            } else if (start < 0) {
+                start = i;
+            }
+        }
+        return tokens;
+    }
+
+    /* Parse a query, throws IllegalArgumentException if it is malformed */
+    public static BooleanQuery parse(String line) {
+        Parser parser = new Parser(tokenize(line));
+        BooleanQuery query = parser.parseOr();
+        if (parser.pos < parser.tokens.size()) {
+            throw new IllegalArgumentException("unexpected \"" + parser.tokens.get(parser.pos) + "\"");
+        }
+        return query;
+    }
+
+    /*
+     * Recursive descent over
+     *   or      := and ("OR" and)*
+     *   and     := not ("AND"? not)*
+     *   not     := "NOT" not | "(" or ")" | near
+     *   near    := primary ("/k" term)?
+     *   primary := '"' term+ '"' | term
+     */
+    private static class Parser {
+        final List<String> tokens;
+        int pos = 0;
+
+        Parser(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        String peek() {
+            return pos < tokens.size() ? tokens.get(pos) : null;
+        }
+
+        BooleanQuery parseOr() {
+            List<BooleanQuery> clauses = new ArrayList<BooleanQuery>();
+            clauses.add(parseAnd());
+            while ("OR".equals(peek())) {
+                pos++;
+                clauses.add(parseAnd());
+            }
+            return clauses.size() == 1 ? clauses.get(0) : new Or(clauses);
+        }
+
+        BooleanQuery parseAnd() {
+            List<BooleanQuery> clauses = new ArrayList<BooleanQuery>();
+            clauses.add(parseNot());
+            while (true) {
+                String token = peek();
+                if ("AND".equals(token)) {
+                    pos++;
+                } else if (token == null || token.equals("OR") || token.equals(")")) {
+                    break;
+                }
+                clauses.add(parseNot());
+            }
+            return clauses.size() == 1 ? clauses.get(0) : new And(clauses);
+        }
+
+        BooleanQuery parseNot() {
+            String token = peek();
+            if ("NOT".equals(token)) {
+                pos++;
+                return new Not(parseNot());
+            }
+            if ("(".equals(token)) {
+                pos++;
+                BooleanQuery query = parseOr();
+                if (!")".equals(peek())) throw new IllegalArgumentException("missing \")\"");
+                pos++;
+                return query;
+            }
+            return parseNear();
+        }
+
+        BooleanQuery parseNear() {
+            BooleanQuery query = parsePrimary();
+            String token = peek();
+            if (token == null || !isProximity(token)) return query;
+            pos++;
+            BooleanQuery right = parsePrimary();
+            if (!(query instanceof Term) || !(right instanceof Term)) {
+                throw new IllegalArgumentException("\"" + token + "\" needs a term on each side");
+            }
+            return new Near(((Term) query).term, ((Term) right).term, Integer.parseInt(token.substring(1)));
+        }
+
+        BooleanQuery parsePrimary() {
+            String token = peek();
+            if (token == null) throw new IllegalArgumentException("unexpected end of query");
+            pos++;
+            if (token.equals("\"")) {
+                List<String> terms = new ArrayList<String>();
+                while (peek() != null && !isOperator(peek())) {
+                    terms.add(tokens.get(pos++));
+                }
+                if (!"\"".equals(peek())) throw new IllegalArgumentException("missing closing quote");
+                pos++;
+                if (terms.isEmpty()) throw new IllegalArgumentException("empty phrase");
+                return terms.size() == 1 ? new Term(terms.get(0)) : new Phrase(terms);
+            }
+            if (isOperator(token)) throw new IllegalArgumentException("unexpected \"" + token + "\"");
+            return new Term(token);
+        }
+    }
+
+    private static class Term extends BooleanQuery {
+        final String term;
+
+        Term(String term) {
+            this.term = term;
+        }
+
+        @Override
+        long cost(Postings postings) {
+            return postings.docFreq(term);
+        }
+
+        @Override
+        public PostingIterator iterator(Postings postings) throws IOException {
+            PostingIterator iter = postings.open(term);
+            return iter == null ? new PostingList(-1).iterator() : iter;
+        }
+    }
+
+    private static class Not extends BooleanQuery {
+        final BooleanQuery clause;
+
+        Not(BooleanQuery clause) {
+            this.clause = clause;
+        }
+
+        @Override
+        long cost(Postings postings) {
+            return postings.maxDocId() - postings.minDocId() + 1;
+        }
+
+        @Override
+        public PostingIterator iterator(Postings postings) throws IOException {
+            return new NotIterator(clause.iterator(postings), postings.minDocId(), postings.maxDocId());
+        }
+    }
+
+    private static class And extends BooleanQuery {
+        final List<BooleanQuery> clauses;
+
+        And(List<BooleanQuery> clauses) {
+            this.clauses = clauses;
+        }
+
+        @Override
+        long cost(Postings postings) {
+            long cost = Long.MAX_VALUE;
+            for (BooleanQuery clause : clauses) {
+                cost = Math.min(cost, clause.cost(postings));
+            }
+            return cost;
+        }
+
+        /*
+         * The positive clauses are leapfrogged cheapest first, negated ones
+         * only veto candidates; if all of them are negated the first one is
+         * complemented to produce candidates
+         */
+        @Override
+        public PostingIterator iterator(final Postings postings) throws IOException {
+            List<BooleanQuery> required = new ArrayList<BooleanQuery>();
+            List<BooleanQuery> excluded = new ArrayList<BooleanQuery>();
+            for (BooleanQuery clause : clauses) {
+                if (clause instanceof Not) excluded.add(((Not) clause).clause);
+                else required.add(clause);
+            }
+            if (required.isEmpty()) required.add(new Not(excluded.remove(0)));
+            Collections.sort(required, new Comparator<BooleanQuery>() {
+                @Override
+                public int compare(BooleanQuery q1, BooleanQuery q2) {
+                    return Long.compare(q1.cost(postings), q2.cost(postings));
+                }
+            });
+
+            PostingIterator[] requiredIters = new PostingIterator[required.size()];
+            for (int i = 0; i < requiredIters.length; i++) {
+                requiredIters[i] = required.get(i).iterator(postings);
+            }
+            PostingIterator[] excludedIters = new PostingIterator[excluded.size()];
+            for (int i = 0; i < excludedIters.length; i++) {
+                excludedIters[i] = excluded.get(i).iterator(postings);
+            }
+            return new AndIterator(requiredIters, excludedIters);
+        }
+    }
+
+    private static class Or extends BooleanQuery {
+        final List<BooleanQuery> clauses;
+
+        Or(List<BooleanQuery> clauses) {
+            this.clauses = clauses;
+        }
+
+        @Override
+        long cost(Postings postings) {
+            long cost = 0;
+            for (BooleanQuery clause : clauses) {
+                cost += clause.cost(postings);
+            }
+            return cost;
+        }
+
+        @Override
+        public PostingIterator iterator(Postings postings) throws IOException {
+            PostingIterator[] iters = new PostingIterator[clauses.size()];
+            for (int i = 0; i < iters.length; i++) {
+                iters[i] = clauses.get(i).iterator(postings);
+            }
+            return new OrIterator(iters);
+        }
+    }
+
+    /* Positional iterators over terms, null if any term is not indexed */
+    private static PositionalPostingIterator[] openPositional(Postings postings, List<String> terms) throws IOException {
+        PositionalPostingIterator[] iters = new PositionalPostingIterator[terms.size()];
+        for (int i = 0; i < iters.length; i++) {
+            iters[i] = postings.openPositional(terms.get(i));
+            if (iters[i] == null) return null;
+        }
+        return iters;
+    }
+
+    private static long minDocFreq(Postings postings, List<String> terms) {
+        long cost = Long.MAX_VALUE;
+        for (String term : terms) {
+            cost = Math.min(cost, postings.docFreq(term));
+        }
+        return cost;
+    }
+
+    private static class Phrase extends BooleanQuery {
+        final List<String> terms;
+
+        Phrase(List<String> terms) {
+            this.terms = terms;
+        }
+
+        @Override
+        long cost(Postings postings) {
+            return minDocFreq(postings, terms);
+        }
+
+        @Override
+        public PostingIterator iterator(Postings postings) throws IOException {
+            PositionalPostingIterator[] iters = openPositional(postings, terms);
+            return iters == null ? new PostingList(-1).iterator() : new PhraseIterator(iters);
+        }
+    }
+
+    private static class Near extends BooleanQuery {
+        final List<String> terms;
+        final int k;
+
+        Near(String term1, String term2, int k) {
+            this.terms = Arrays.asList(term1, term2);
+            this.k = k;
+        }
+
+        @Override
+        long cost(Postings postings) {
+            return minDocFreq(postings, terms);
+        }
+
+        @Override
+        public PostingIterator iterator(Postings postings) throws IOException {
+            PositionalPostingIterator[] iters = openPositional(postings, terms);
+            return iters == null ? new PostingList(-1).iterator() : new NearIterator(iters, k);
+        }
+    }
+
+    /*
+     * Docs on all of the positional iterators whose positions line up. Docs
+     * are leapfrogged like AndIterator; positions are only decoded for docs
+     * every iterator shares.
+     */
+    private abstract static class PositionalIterator implements PostingIterator {
+        final PositionalPostingIterator[] iters;
+        private int docId = -1;
+
+        PositionalIterator(PositionalPostingIterator[] iters) {
+            this.iters = iters;
+        }
+
+        @Override
+        public int docId() {
+            return docId;
+        }
+
+        @Override
+        public int next() {
+            if (docId == NO_MORE_DOCS) return docId;
+            return advance(docId + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            if (docId >= target) return docId;
+            int candidate = target;
+            candidates:
+            while (true) {
+                for (PositionalPostingIterator iter : iters) {
+                    int d = iter.advance(candidate);
+                    if (d == NO_MORE_DOCS) return docId = NO_MORE_DOCS;
+                    if (d > candidate) {
+                        candidate = d;
+                        continue candidates;
+                    }
+                }
+                if (positionsMatch()) return docId = candidate;
+                candidate++;
+            }
+        }
+
+        /* Whether the positions in the current doc of every list line up */
+        abstract boolean positionsMatch();
+    }
+
+    /* Docs where iterator i has a position p + i for some p of iterator 0 */
+    private static class PhraseIterator extends PositionalIterator {
+        private final int[] cursors;
+
+        PhraseIterator(PositionalPostingIterator[] iters) {
+            super(iters);
+            this.cursors = new int[iters.length];
+        }
+
+        @Override
+        boolean positionsMatch() {
+            for (int i = 0; i < iters.length; i++) {
+                cursors[i] = iters[i].positionStart();
+            }
+            int[] firsts = iters[0].positions();
+            int firstEnd = iters[0].positionEnd();
+            starts:
+            for (int c = cursors[0]; c < firstEnd; c++) {
+                for (int i = 1; i < iters.length; i++) {
+                    int[] positions = iters[i].positions();
+                    int end = iters[i].positionEnd();
+                    int want = firsts[c] + i;
+                    cursors[i] = PostingList.gallop(positions, cursors[i], end, want);
+                    if (cursors[i] == end) return false;
+                    if (positions[cursors[i]] != want) continue starts;
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /* Docs where the two iterators have positions at most k apart, in either order */
+    private static class NearIterator extends PositionalIterator {
+        private final int k;
+
+        NearIterator(PositionalPostingIterator[] iters, int k) {
+            super(iters);
+            this.k = k;
+        }
+
+        @Override
+        boolean positionsMatch() {
+            int[] positions1 = iters[0].positions(), positions2 = iters[1].positions();
+            int i = iters[0].positionStart(), end1 = iters[0].positionEnd();
+            int j = iters[1].positionStart(), end2 = iters[1].positionEnd();
+            while (i < end1 && j < end2) {
+                if (Math.abs(positions1[i] - positions2[j]) <= k) return true;
+                if (positions1[i] < positions2[j]) i++;
+                else j++;
+            }
+            return false;
+        }
+    }
+
+    /* Docs on every required iterator and on none of the excluded ones */
+    private static class AndIterator implements PostingIterator {
+        private final PostingIterator[] required;
+        private final PostingIterator[] excluded;
+        private int docId = -1;
+
+        AndIterator(PostingIterator[] required, PostingIterator[] excluded) {
+            this.required = required;
+            this.excluded = excluded;
+        }
+
+        @Override
+        public int docId() {
+            return docId;
+        }
+
+        @Override
+        public int next() {
+            if (docId == NO_MORE_DOCS) return docId;
+            return docId = align(required[0].next());
+        }
+
+        @Override
+        public int advance(int target) {
+            if (docId >= target) return docId;
+            return docId = align(required[0].advance(target));
+        }
+
+        /* First match at or after the lead iterator's candidate */
+        private int align(int candidate) {
+            PostingIterator lead = required[0];
+            candidates:
+            while (candidate != NO_MORE_DOCS) {
+                for (int i = 1; i < required.length; i++) {
+                    int next = required[i].advance(candidate);
+                    if (next != candidate) {
+                        candidate = lead.advance(next);
+                        continue candidates;
+                    }
+                }
+                for (PostingIterator iter : excluded) {
+                    if (iter.advance(candidate) == candidate) {
+                        candidate = lead.next();
+                        continue candidates;
+                    }
+                }
+                return candidate;
+            }
+            return NO_MORE_DOCS;
+        }
+    }
+
+    /* Docs on any of the iterators, merged through a heap on their doc ids */
+    private static class OrIterator implements PostingIterator {
+        private final PostingIterator[] iters;
+        private PriorityQueue<PostingIterator> heap = null;
+        private int docId = -1;
+
+        OrIterator(PostingIterator[] iters) {
+            this.iters = iters;
+        }
+
+        @Override
+        public int docId() {
+            return docId;
+        }
+
+        @Override
+        public int next() {
+            if (docId == NO_MORE_DOCS) return docId;
+            return advance(docId + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            if (docId >= target) return docId;
+            if (heap == null) {
+                heap = new PriorityQueue<PostingIterator>(Math.max(1, iters.length), new Comparator<PostingIterator>() {
+                    @Override
+                    public int compare(PostingIterator i1, PostingIterator i2) {
+                        return Integer.compare(i1.docId(), i2.docId());
+                    }
+                });
+                for (PostingIterator iter : iters) {
+                    if (iter.advance(target) != NO_MORE_DOCS) heap.add(iter);
+                }
+            }
+            while (!heap.isEmpty() && heap.peek().docId() < target) {
+                PostingIterator iter = heap.poll();
+                if (iter.advance(target) != NO_MORE_DOCS) heap.add(iter);
+            }
+            return docId = heap.isEmpty() ? NO_MORE_DOCS : heap.peek().docId();
+        }
+    }
+
+    /* Docs from minDocId to maxDocId that are not on the iterator */
+    private static class NotIterator implements PostingIterator {
+        private final PostingIterator iter;
+        private final int minDocId;
+        private final int maxDocId;
+        private int docId = -1;
+
+        NotIterator(PostingIterator iter, int minDocId, int maxDocId) {
+            this.iter = iter;
+            this.minDocId = Math.max(minDocId, 1);
+            this.maxDocId = maxDocId;
+        }
+
+        @Override
+        public int docId() {
+            return docId;
+        }
+
+        @Override
+        public int next() {
+            if (docId == NO_MORE_DOCS) return docId;
+            return advance(docId + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            if (docId >= target) return docId;
+            for (int candidate = Math.max(target, minDocId); candidate <= maxDocId; candidate++) {
+                if (iter.advance(candidate) != candidate) return docId = candidate;
+            }
+            return docId = NO_MORE_DOCS;
+        }
+    }
+}
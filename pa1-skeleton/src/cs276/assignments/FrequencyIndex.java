@@ -0,0 +1,192 @@
+package cs276.assignments;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import cs276.util.BitReader;
+import cs276.util.BitWriter;
+
+/*
+ * Adds term frequencies to the postings of another codec, for ranking
+ * without the cost of positions. Each posting is
+ *   int maxFreq, the doc id posting of the wrapped codec,
+ *   int freqBytes, byte[freqBytes] frequencies
+ * where maxFreq is the largest of the frequencies, for bounds on a ranked
+ * score (see IndexSegment.maxFreq), and the frequencies hold the term frequency of every doc in order, gamma coded when
+ * wrapping GammaIndex and VB coded otherwise, like PositionalIndex does.
+ */
+public class FrequencyIndex implements BaseIndex {
+
+    private final BaseIndex docIndex;
+    private final boolean gamma;
+
+    public FrequencyIndex(BaseIndex docIndex) {
+        this.docIndex = docIndex;
+        this.gamma = docIndex instanceof GammaIndex;
+    }
+
+    @Override
+    public PostingList readPosting(FileChannel fc) throws IOException {
+        ByteBuffer metaBuf = ByteBuffer.allocate(INT_BYTES);
+        if (fc.read(metaBuf) == -1) return null;
+        PostingList p = docIndex.readPosting(fc);
+
+        metaBuf.clear();
+        fc.read(metaBuf);
+        metaBuf.flip();
+        int freqBytes = metaBuf.getInt();
+        ByteBuffer freqBuf = ByteBuffer.allocate(freqBytes);
+        fc.read(freqBuf);
+        freqBuf.flip();
+
+        return decodeFrequencies(p, freqBuf, freqBytes);
+    }
+
+    @Override
+    public PostingList readPosting(ByteBuffer buf) {
+        buf.getInt();
+        PostingList p = docIndex.readPosting(buf);
+        int freqBytes = buf.getInt();
+        return decodeFrequencies(p, buf, freqBytes);
+    }
+
+    /* Doc ids only, the frequencies are stepped over */
+    @Override
+    public PostingIterator iterator(ByteBuffer buf) {
+        buf.getInt();
+        PostingIterator iter = docIndex.iterator(buf);
+        int freqBytes = buf.getInt();
+        buf.position(buf.position() + freqBytes);
+        return iter;
+    }
+
+    /* Iterate over the doc ids and frequencies of the posting at the buffer's position */
+    public FrequencyPostingIterator frequencyIterator(ByteBuffer buf) {
+        buf.getInt();
+        PostingIterator docs = docIndex.iterator(buf);
+        int freqBytes = buf.getInt();
+        FrequencyPostingIterator iter = new StreamingFrequencyIterator(docs, buf.duplicate(), freqBytes);
+        buf.position(buf.position() + freqBytes);
+        return iter;
+    }
+
+    /* Decode the freqBytes of frequencies at the buffer's position for the docs of p */
+    private PostingList decodeFrequencies(PostingList p, ByteBuffer buf, int freqBytes) {
+        int start = buf.position();
+        BitReader bits = gamma ? new BitReader(buf.duplicate(), freqBytes) : null;
+
+        int size = p.size();
+        int[] freqs = new int[size];
+        int[] numberEndIndex = { 0, start };
+        for (int i = 0; i < size; i++) {
+            freqs[i] = PositionalIndex.readNumber(buf, bits, numberEndIndex);
+        }
+        buf.position(start + freqBytes);
+
+        return new PostingList(p.getTermId(), p.getPostings(), size, freqs);
+    }
+
+    /* Write the maxFreq field that starts a frequency or positional posting */
+    static void writeMaxFreq(FileChannel fc, PostingList p) throws IOException {
+        int maxFreq = 0;
+        for (int i = 0; i < p.size(); i++) {
+            maxFreq = Math.max(maxFreq, p.freq(i));
+        }
+        ByteBuffer metaBuf = ByteBuffer.allocate(INT_BYTES);
+        metaBuf.putInt(maxFreq);
+        metaBuf.flip();
+        fc.write(metaBuf);
+    }
+
+    @Override
+    public void writePosting(FileChannel fc, PostingList p) throws IOException {
+        writeMaxFreq(fc, p);
+        docIndex.writePosting(fc, p);
+
+        int size = p.size();
+        byte[] freqBytes;
+        int numBytes;
+        if (gamma) {
+            BitWriter bits = new BitWriter();
+            for (int i = 0; i < size; i++) {
+                bits.writeGamma(p.freq(i));
+            }
+            freqBytes = bits.toByteArray();
+            numBytes = freqBytes.length;
+        } else {
+            freqBytes = new byte[(INT_BYTES + 1) * size];
+            numBytes = 0;
+            byte[] outputVBCode = new byte[INT_BYTES + 1];
+            for (int i = 0; i < size; i++) {
+                int n = VBIndex.VBEncodeInteger(p.freq(i), outputVBCode);
+                System.arraycopy(outputVBCode, 0, freqBytes, numBytes, n);
+                numBytes += n;
+            }
+        }
+
+        ByteBuffer freqBuf = ByteBuffer.allocate(INT_BYTES + numBytes);
+        freqBuf.putInt(numBytes);
+        freqBuf.put(freqBytes, 0, numBytes);
+        freqBuf.flip();
+        fc.write(freqBuf);
+    }
+
+    /*
+     * Reads the frequency of a doc only when it is asked for, straight from
+     * the buffer, stepping over those of the docs passed. As in
+     * PositionalIndex, advance steps the wrapped iterator one doc at a time
+     * to count the docs passed.
+     */
+    private class StreamingFrequencyIterator implements FrequencyPostingIterator {
+        private final PostingIterator docs;
+        private final ByteBuffer buf;
+        private final int freqBytes;
+        private BitReader bits;
+        private final int[] numberEndIndex;
+        /* Index of the current doc, and of the next doc whose frequency the buffer holds */
+        private int index = -1;
+        private int freqIndex = 0;
+        private int freq = 0;
+
+        StreamingFrequencyIterator(PostingIterator docs, ByteBuffer buf, int freqBytes) {
+            this.docs = docs;
+            this.buf = buf;
+            this.freqBytes = freqBytes;
+            this.numberEndIndex = new int[] { 0, buf.position() };
+        }
+
+        @Override
+        public int docId() {
+            return docs.docId();
+        }
+
+        @Override
+        public int next() {
+            int docId = docs.next();
+            if (docId != NO_MORE_DOCS) index++;
+            return docId;
+        }
+
+        @Override
+        public int advance(int target) {
+            int docId = docs.docId();
+            while (docId < target) {
+                docId = next();
+            }
+            return docId;
+        }
+
+        @Override
+        public int freq() {
+            if (freqIndex > index) return freq;
+            if (gamma && bits == null) bits = new BitReader(buf.duplicate(), freqBytes);
+            for (; freqIndex < index; freqIndex++) {
+                PositionalIndex.readNumber(buf, bits, numberEndIndex);
+            }
+            freq = PositionalIndex.readNumber(buf, bits, numberEndIndex);
+            freqIndex++;
+            return freq;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package cs276.assignments;
+
+/*
+ * PostingIterator that also hands out the term frequency in the current
+ * doc, decoding it only when asked
+ */
+public interface FrequencyPostingIterator extends PostingIterator {
+
+    public int freq();
+}
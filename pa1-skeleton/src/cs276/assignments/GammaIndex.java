@@ -3,26 +3,34 @@ package cs276.assignments;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.ArrayList;
 import java.util.BitSet;
-import java.util.List;
 
+import cs276.util.BitReader;
+import cs276.util.BitWriter;
+
+/*
+ * Gamma coded gaps. A posting is
+ *   int termId, int totalBits, byte[(totalBits + 7) / 8] gamma codes
+ * with the bits in java.util.BitSet order. The BitSet based helpers below
+ * define the code; postings are read and written through the word at a time
+ * BitReader and BitWriter.
+ */
 public class GammaIndex implements BaseIndex {
 
-    public static List<Integer> gapEncode(List<Integer> docIds) {
-        List<Integer> gaps = new ArrayList<Integer>(docIds);
-        for (int i = docIds.size() - 1; i > 0; i--) {
-            gaps.set(i, docIds.get(i) - docIds.get(i - 1));
+    public static int[] gapEncode(int[] docIds, int size) {
+        int[] gaps = new int[size];
+        if (size == 0) return gaps;
+        gaps[0] = docIds[0];
+        for (int i = 1; i < size; i++) {
+            gaps[i] = docIds[i] - docIds[i - 1];
         }
         return gaps;
     }
 
-    public static List<Integer> gapDecode(List<Integer> gaps) {
-        List<Integer> docIds = new ArrayList<Integer>(gaps);
-        for (int i = 1; i < gaps.size(); i++) {
-            docIds.set(i, gaps.get(i) + gaps.get(i - 1));
+    public static void gapDecode(int[] gapsOutputDocIds, int size) {
+        for (int i = 1; i < size; i++) {
+            gapsOutputDocIds[i] += gapsOutputDocIds[i - 1];
         }
-        return docIds;
     }
 
     public static int unaryEncodeInteger(int number, BitSet outputUnaryCode, int startIndex) {
@@ -78,49 +86,49 @@ public class GammaIndex implements BaseIndex {
         fc.read(gapsBuf);
         gapsBuf.flip();
 
-        BitSet bs = BitSet.valueOf(gapsBuf);
-
-        int nextIndex = 0;
-        int[] numberEndIndex = new int[2];
-        List<Integer> gaps = new ArrayList<Integer>();
-        while (nextIndex < totalBits) {
-            gammaDecodeInteger(bs, nextIndex, numberEndIndex);
-            gaps.add(numberEndIndex[0]);
-            nextIndex = numberEndIndex[1];
-        }
-
-        System.out.println(gapDecode(gaps));
-        return new PostingList(termId, gapDecode(gaps));
+        return decodePosting(termId, gapsBuf, totalBits);
     }
 
     @Override
-    public void writePosting(FileChannel fc, PostingList p) throws IOException {
-        ByteBuffer metaBuf = ByteBuffer.allocate(2 * INT_BYTES);
-        ByteBuffer gapsBuf = ByteBuffer.allocate(p.getList().size() * INT_BYTES);
-        BitSet bs = new BitSet();
+    public PostingList readPosting(ByteBuffer buf) {
+        int termId = buf.getInt();
+        int totalBits = buf.getInt();
+        return decodePosting(termId, buf, totalBits);
+    }
 
-        List<Integer> gaps = gapEncode(p.getList());
-        int nextIndex = 0;
-        for (int gap : gaps) {
-            nextIndex = gammaEncodeInteger(gap, bs, nextIndex);
-        }
+    @Override
+    public PostingIterator iterator(ByteBuffer buf) {
+        return readPosting(buf).iterator();
+    }
 
-        int termId = p.getTermId();
-        int totalBits = nextIndex;
+    private static PostingList decodePosting(int termId, ByteBuffer buf, int totalBits) {
+        BitReader bits = new BitReader(buf, (totalBits + 7) / 8);
 
-        metaBuf.putInt(termId);
-        metaBuf.putInt(totalBits);
-        byte[] rawBytes = bs.toByteArray();
-        byte[] gammaBytes = new byte[(totalBits + 7) / 8];
-        for (int i = 0; i < rawBytes.length; i++) {
-            gammaBytes[i] = rawBytes[i];
+        PostingList p = new PostingList(termId);
+        int docId = 0;
+        while (bits.position() < totalBits) {
+            docId += bits.readGamma();
+            p.add(docId);
         }
-        gapsBuf.put(gammaBytes);
+        return p;
+    }
 
-        metaBuf.flip();
-        gapsBuf.flip();
+    @Override
+    public void writePosting(FileChannel fc, PostingList p) throws IOException {
+        BitWriter bits = new BitWriter();
+        int[] docIds = p.getPostings();
+        int prev = 0;
+        for (int i = 0; i < p.size(); i++) {
+            bits.writeGamma(docIds[i] - prev);
+            prev = docIds[i];
+        }
 
-        fc.write(metaBuf);
-        fc.write(gapsBuf);
+        byte[] gammaBytes = bits.toByteArray();
+        ByteBuffer buf = ByteBuffer.allocate(2 * INT_BYTES + gammaBytes.length);
+        buf.putInt(p.getTermId());
+        buf.putInt(bits.numBits());
+        buf.put(gammaBytes);
+        buf.flip();
+        fc.write(buf);
     }
 }
@@ -0,0 +1,222 @@
+package cs276.assignments;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/*
+ * Group varint codec. Gaps are stored in groups of four behind a control
+ * byte that holds the byte length minus one of each of them, two bits per
+ * gap with the first gap in the lowest bits. The gaps follow in 1 to 4
+ * little endian bytes each.
+ *
+ * Layout: termId, docFreq, totalBytes, then the groups, the last one cut
+ * short when docFreq is not a multiple of four, then PADDING zero bytes.
+ * The padding lets the decoder load every gap as a whole int and mask it,
+ * looking up offsets and masks for the control byte in a table instead of
+ * testing a continuation bit in every byte.
+ */
+public class GroupVarintIndex implements BaseIndex {
+
+    private static final int GROUP_SIZE = 4;
+    private static final int PADDING = INT_BYTES - 1;
+
+    // Doc ids an iterator decodes at once
+    private static final int ITERATOR_BLOCK = 128;
+
+    /*
+     * For control byte c, the offset of gap k from the control byte and its
+     * mask are OFFSETS[4 c + k] and MASKS[4 c + k]; the whole group takes
+     * GROUP_BYTES[c] bytes
+     */
+    private static final int[] OFFSETS = new int[256 * GROUP_SIZE];
+    private static final int[] MASKS = new int[256 * GROUP_SIZE];
+    private static final int[] GROUP_BYTES = new int[256];
+
+    static {
+        for (int control = 0; control < 256; control++) {
+            int offset = 1;
+            for (int k = 0; k < GROUP_SIZE; k++) {
+                int length = ((control >>> (2 * k)) & 3) + 1;
+                OFFSETS[GROUP_SIZE * control + k] = offset;
+                MASKS[GROUP_SIZE * control + k] = length == INT_BYTES ? -1 : (1 << (8 * length)) - 1;
+                offset += length;
+            }
+            GROUP_BYTES[control] = offset;
+        }
+    }
+
+    @Override
+    public PostingList readPosting(FileChannel fc) throws IOException {
+        ByteBuffer metaBuf = ByteBuffer.allocate(INT_BYTES * 3);
+        if (fc.read(metaBuf) == -1) return null;
+
+        metaBuf.flip();
+        int termId = metaBuf.getInt();
+        int docFreq = metaBuf.getInt();
+        int totalBytes = metaBuf.getInt();
+
+        ByteBuffer groupsBuf = ByteBuffer.allocate(totalBytes).order(ByteOrder.LITTLE_ENDIAN);
+        fc.read(groupsBuf);
+
+        return decodePosting(termId, groupsBuf, 0, docFreq);
+    }
+
+    @Override
+    public PostingList readPosting(ByteBuffer buf) {
+        int termId = buf.getInt();
+        int docFreq = buf.getInt();
+        int totalBytes = buf.getInt();
+        PostingList p = decodePosting(termId, littleEndian(buf), buf.position(), docFreq);
+        buf.position(buf.position() + totalBytes);
+        return p;
+    }
+
+    @Override
+    public PostingIterator iterator(ByteBuffer buf) {
+        buf.getInt();
+        int docFreq = buf.getInt();
+        int totalBytes = buf.getInt();
+        PostingIterator iter = new GroupVarintPostingIterator(littleEndian(buf), buf.position(), docFreq);
+        buf.position(buf.position() + totalBytes);
+        return iter;
+    }
+
+    private static ByteBuffer littleEndian(ByteBuffer buf) {
+        return buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /* Decode the groups starting at pos of the little endian buffer le in place, without copying them */
+    private static PostingList decodePosting(int termId, ByteBuffer le, int pos, int docFreq) {
+        int[] docIds = new int[docFreq];
+        int i = 0;
+        int docId = 0;
+        for (; i + GROUP_SIZE <= docFreq; i += GROUP_SIZE) {
+            int t = (le.get(pos) & 0xff) << 2;
+            docIds[i] = docId += le.getInt(pos + OFFSETS[t]) & MASKS[t];
+            docIds[i + 1] = docId += le.getInt(pos + OFFSETS[t + 1]) & MASKS[t + 1];
+            docIds[i + 2] = docId += le.getInt(pos + OFFSETS[t + 2]) & MASKS[t + 2];
+            docIds[i + 3] = docId += le.getInt(pos + OFFSETS[t + 3]) & MASKS[t + 3];
+            pos += GROUP_BYTES[t >>> 2];
+        }
+        if (i < docFreq) {
+            decodeGroup(le, pos, docIds, i, docFreq - i);
+            for (; i < docFreq; i++) {
+                docIds[i] = docId += docIds[i];
+            }
+        }
+        return new PostingList(termId, docIds);
+    }
+
+    /* Decode the first n gaps of the group at pos into out[off...], returns the next group's position */
+    private static int decodeGroup(ByteBuffer le, int pos, int[] out, int off, int n) {
+        int control = le.get(pos) & 0xff;
+        int t = control << 2;
+        for (int k = 0; k < n; k++) {
+            out[off + k] = le.getInt(pos + OFFSETS[t + k]) & MASKS[t + k];
+        }
+        return pos + GROUP_BYTES[control];
+    }
+
+    private static int byteLength(int gap) {
+        return Math.max(1, (32 - Integer.numberOfLeadingZeros(gap) + 7) >>> 3);
+    }
+
+    @Override
+    public void writePosting(FileChannel fc, PostingList p) throws IOException {
+        int size = p.size();
+        int[] gaps = VBIndex.gapEncode(p.getPostings(), size);
+
+        int numGroups = (size + GROUP_SIZE - 1) / GROUP_SIZE;
+        ByteBuffer buf = ByteBuffer.allocate(INT_BYTES * 3 + numGroups + size * INT_BYTES + PADDING);
+        buf.position(INT_BYTES * 3);
+
+        for (int start = 0; start < size; start += GROUP_SIZE) {
+            int n = Math.min(GROUP_SIZE, size - start);
+            int controlPos = buf.position();
+            buf.put((byte) 0);
+            int control = 0;
+            for (int k = 0; k < n; k++) {
+                int gap = gaps[start + k];
+                int length = byteLength(gap);
+                control |= (length - 1) << (2 * k);
+                for (int b = 0; b < length; b++) {
+                    buf.put((byte) (gap >>> (8 * b)));
+                }
+            }
+            buf.put(controlPos, (byte) control);
+        }
+        buf.position(buf.position() + PADDING);
+
+        buf.putInt(0, p.getTermId());
+        buf.putInt(INT_BYTES, size);
+        buf.putInt(INT_BYTES * 2, buf.position() - INT_BYTES * 3);
+        buf.flip();
+        fc.write(buf);
+    }
+
+    /* Decodes ITERATOR_BLOCK doc ids at a time */
+    private static class GroupVarintPostingIterator implements PostingIterator {
+        private final ByteBuffer le;
+        private final int[] block = new int[ITERATOR_BLOCK];
+        private int groupPos;
+        private int blockIndex = 0;
+        private int blockLength = 0;
+        private int remaining;
+        private int docId = -1;
+
+        GroupVarintPostingIterator(ByteBuffer le, int groupPos, int docFreq) {
+            this.le = le;
+            this.groupPos = groupPos;
+            this.remaining = docFreq;
+        }
+
+        @Override
+        public int docId() {
+            return docId;
+        }
+
+        /* Decode the next block, adding its gaps onto the last doc id */
+        private void refill() {
+            int prevDocId = blockLength == 0 ? 0 : block[blockLength - 1];
+            int n = Math.min(ITERATOR_BLOCK, remaining);
+            int pos = groupPos;
+            int i = 0;
+            for (; i + GROUP_SIZE <= n; i += GROUP_SIZE) {
+                int t = (le.get(pos) & 0xff) << 2;
+                block[i] = prevDocId += le.getInt(pos + OFFSETS[t]) & MASKS[t];
+                block[i + 1] = prevDocId += le.getInt(pos + OFFSETS[t + 1]) & MASKS[t + 1];
+                block[i + 2] = prevDocId += le.getInt(pos + OFFSETS[t + 2]) & MASKS[t + 2];
+                block[i + 3] = prevDocId += le.getInt(pos + OFFSETS[t + 3]) & MASKS[t + 3];
+                pos += GROUP_BYTES[t >>> 2];
+            }
+            if (i < n) {
+                pos = decodeGroup(le, pos, block, i, n - i);
+                for (; i < n; i++) {
+                    block[i] = prevDocId += block[i];
+                }
+            }
+            groupPos = pos;
+            remaining -= n;
+            blockLength = n;
+            blockIndex = 0;
+        }
+
+        @Override
+        public int next() {
+            if (blockIndex == blockLength) {
+                if (remaining == 0) return docId = NO_MORE_DOCS;
+                refill();
+            }
+            return docId = block[blockIndex++];
+        }
+
+        @Override
+        public int advance(int target) {
+            if (docId >= target) return docId;
+            while (next() < target);
+            return docId;
+        }
+    }
+}
@@ -1,20 +1,33 @@
 package cs276.assignments;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import cs276.util.Pair;
+import cs276.util.Tokenizer;
 
 public class Index {
 
@@ -22,8 +35,8 @@ public class Index {
     private static Map<Integer, Pair<Long, Integer>> postingDict = new TreeMap<Integer, Pair<Long, Integer>>();
     // Doc name -> doc id dictionary
     private static Map<String, Integer> docDict = new TreeMap<String, Integer>();
-    // Term -> term id dictionary
-    private static Map<String, Integer> termDict = new TreeMap<String, Integer>();
+    // Term -> term id dictionary, shared by the block inversion threads
+    private static Map<String, Integer> termDict = new ConcurrentHashMap<String, Integer>();
     // Block queue
     private static LinkedList<File> blockQueue = new LinkedList<File>();
 
@@ -35,6 +48,30 @@ public class Index {
     private static int wordIdCounter = 0;
     // Index
     private static BaseIndex index = null;
+    // Blocks merged per pass, 0 merges all blocks at once
+    private static int mergeFanIn = 2;
+    // Threads inverting blocks
+    private static int numThreads = 1;
+    // Write corpus.dict instead of the text dictionaries
+    private static boolean binaryDict = false;
+    // Record term positions, see PositionalIndex
+    private static boolean positional = false;
+    // Present in the output directory when the index is positional
+    static final String POSITIONAL_MARKER = "positional";
+    // Record term frequencies, see FrequencyIndex
+    private static boolean frequencies = false;
+    // Present in the output directory when the index has term frequencies
+    static final String FREQUENCIES_MARKER = "frequencies";
+    // Length in tokens of each doc of this run, from the run's first doc id on
+    private static int[] docLengths = null;
+    private static int firstRunDocId = 1;
+    // Doc lengths as big endian ints, see writeDocLengths
+    static final String DOC_LENGTHS_FILE = "doc.len";
+    // Add new blocks to the index as a segment, see SegmentManifest; a
+    // separate SegmentMerger run merges the segments
+    private static boolean incremental = false;
+    // Heap budget in MB of SPIMI indexing, see SpimiIndexer; 0 uses BSBI blocks
+    private static long spimiBudget = 0;
 
     /*
      * Write a posting list to the given file You should record the file
@@ -43,27 +80,188 @@ public class Index {
      */
     private static void writePosting(FileChannel fc, PostingList posting) throws IOException {
         if (blockQueue.isEmpty()) {
-            postingDict.put(posting.getTermId(), new Pair<>(fc.position(), posting.getList().size()));
+            postingDict.put(posting.getTermId(), new Pair<>(fc.position(), posting.size()));
         }
         index.writePosting(fc, posting);
     }
 
+    /*
+     * K-way merge of the given sorted block files into outfile in a single
+     * pass, keeping one cursor per block in a min-heap keyed by term id
+     */
+    private static void mergeBlocks(List<File> blocks, File outfile) throws IOException {
+        List<RandomAccessFile> files = new ArrayList<RandomAccessFile>(blocks.size());
+        PriorityQueue<BlockCursor> heap = new PriorityQueue<BlockCursor>(blocks.size(), new Comparator<BlockCursor>() {
+            @Override
+            public int compare(BlockCursor c1, BlockCursor c2) {
+                return Integer.compare(c1.posting.getTermId(), c2.posting.getTermId());
+            }
+        });
+
+        for (File block : blocks) {
+            RandomAccessFile bf = new RandomAccessFile(block, "r");
+            files.add(bf);
+            BlockCursor cursor = new BlockCursor(bf.getChannel());
+            if (cursor.advance()) heap.add(cursor);
+        }
+
+        RandomAccessFile mf = new RandomAccessFile(outfile, "rw");
+        FileChannel mfc = mf.getChannel();
+
+        while (!heap.isEmpty()) {
+            BlockCursor cursor = heap.poll();
+            PostingList p = cursor.posting;
+            if (cursor.advance()) heap.add(cursor);
+            while (!heap.isEmpty() && heap.peek().posting.getTermId() == p.getTermId()) {
+                cursor = heap.poll();
+                p = PostingList.merge(p, cursor.posting);
+                if (cursor.advance()) heap.add(cursor);
+            }
+            writePosting(mfc, p);
+        }
+
+        mf.close();
+        for (RandomAccessFile bf : files) {
+            bf.close();
+        }
+    }
+
+    /* Read position in one block file during a merge */
+    private static class BlockCursor {
+        final FileChannel fc;
+        PostingList posting;
+
+        BlockCursor(FileChannel fc) {
+            this.fc = fc;
+        }
+
+        boolean advance() throws IOException {
+            posting = index.readPosting(fc);
+            return posting != null;
+        }
+    }
+
+    /*
+     * Term -> term id lookup that is safe to call from several inversion
+     * threads at once; only a miss takes the lock
+     */
+    private static int getTermId(String token) {
+        Integer termId = termDict.get(token);
+        if (termId == null) {
+            synchronized (termDict) {
+                termId = termDict.get(token);
+                if (termId == null) {
+                    termId = wordIdCounter++;
+                    termDict.put(token, termId);
+                }
+            }
+        }
+        return termId;
+    }
+
+    /*
+     * Invert one block of documents, numbered from firstDocId in list order,
+     * and write its postings sorted by term id to blockFile
+     */
+    private static void invertBlock(List<File> files, int firstDocId, File blockFile) throws IOException {
+        TreeMap<Integer, PostingList> blockMap = new TreeMap<Integer, PostingList>();
+
+        /* For each file, sharing one tokenizer so terms are interned once per block */
+        Tokenizer tokenizer = new Tokenizer();
+        int docId = firstDocId;
+        for (File file : files) {
+            Reader reader = new FileReader(file);
+            tokenizer.reset(reader);
+            int position = 0;
+            while (tokenizer.next()) {
+                int termId = getTermId(tokenizer.term());
+                PostingList posting = blockMap.get(termId);
+                if (posting == null) {
+                    posting = new PostingList(termId);
+                    blockMap.put(termId, posting);
+                }
+                /* Doc ids only grow within a block, so a repeat is always the last one */
+                if (positional) {
+                    posting.addPosition(docId, position);
+                } else if (frequencies) {
+                    posting.addOccurrence(docId);
+                } else if (posting.isEmpty() || posting.getLast() != docId) {
+                    posting.add(docId);
+                }
+                position++;
+            }
+            reader.close();
+            docLengths[docId - firstRunDocId] = position;
+            docId++;
+        }
+
+        /* Sort and output */
+        if (!blockFile.createNewFile()) {
+            throw new IOException("Create new block failure: " + blockFile);
+        }
+
+        RandomAccessFile bfc = new RandomAccessFile(blockFile, "rw");
+        FileChannel fc = bfc.getChannel();
+
+        for (PostingList posting : blockMap.values()) {
+            index.writePosting(fc, posting);
+        }
+
+        bfc.close();
+    }
+
     public static void main(String[] args) throws IOException {
         /* Parse command line */
-        if (args.length != 3) {
-            System.err.println("Usage: java Index [Basic|VB|Gamma] data_dir output_dir");
+        if (args.length < 3) {
+            System.err.println("Usage: java Index [Basic|VB|Gamma|PFor|GroupVarint] data_dir output_dir [-merge fan_in] [-threads n] [-bindict] [-positional | -tf] [-incremental] [-spimi budget_mb]");
             return;
         }
 
+        /* Optional flags */
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("-merge") && i + 1 < args.length) {
+                mergeFanIn = Integer.parseInt(args[++i]);
+                /* One block per pass would never shrink the queue */
+                if (mergeFanIn == 1) {
+                    System.err.println("-merge fan_in must be at least 2, or 0 to merge all blocks at once");
+                    return;
+                }
+            } else if (args[i].equals("-threads") && i + 1 < args.length) {
+                numThreads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-bindict")) {
+                binaryDict = true;
+            } else if (args[i].equals("-positional")) {
+                positional = true;
+            } else if (args[i].equals("-tf")) {
+                frequencies = true;
+            } else if (args[i].equals("-incremental")) {
+                incremental = true;
+            } else if (args[i].equals("-spimi") && i + 1 < args.length) {
+                spimiBudget = Long.parseLong(args[++i]);
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+
         /* Get index */
         String className = "cs276.assignments." + args[0] + "Index";
         try {
             Class<?> indexClass = Class.forName(className);
             index = (BaseIndex) indexClass.newInstance();
         } catch (Exception e) {
-            System.err.println("Index method must be \"Basic\", \"VB\", or \"Gamma\"");
+            System.err.println("Index method must be \"Basic\", \"VB\", \"Gamma\", \"PFor\", or \"GroupVarint\"");
             throw new RuntimeException(e);
         }
+        if (positional && frequencies) {
+            System.err.println("-positional already records term frequencies, leave out -tf");
+            return;
+        }
+        if (positional) {
+            index = new PositionalIndex(index);
+        } else if (frequencies) {
+            index = new FrequencyIndex(index);
+        }
 
         /* Get root directory */
         String root = args[1];
@@ -88,139 +286,241 @@ public class Index {
             }
         }
 
+        /*
+         * An incremental run only inverts the blocks that no segment holds
+         * yet, numbering their docs after the last segment's, into a new
+         * segment directory
+         */
+        List<SegmentManifest.Entry> segments = null;
+        Set<String> indexedBlocks = new HashSet<String>();
+        String segmentName = null;
+        if (incremental) {
+            if (!SegmentManifest.exists(outdir) && new File(outdir, "corpus.index").exists()) {
+                System.err.println("Output directory holds a non-incremental index: " + output);
+                return;
+            }
+            /* Locked so that a running merge cannot delete the segment checked here */
+            FileLock lock = SegmentManifest.lock(outdir);
+            try {
+                segments = SegmentManifest.read(outdir);
+                for (SegmentManifest.Entry segment : segments) {
+                    indexedBlocks.addAll(segment.blocks);
+                    docIdCounter = Math.max(docIdCounter, segment.lastDocId);
+                }
+                if (!segments.isEmpty()) {
+                    File firstSegment = new File(outdir, segments.get(0).name);
+                    if (new File(firstSegment, POSITIONAL_MARKER).exists() != positional
+                            || new File(firstSegment, FREQUENCIES_MARKER).exists() != frequencies) {
+                        System.err.println("-positional and -tf must match the existing segments");
+                        return;
+                    }
+                }
+                segmentName = SegmentManifest.newSegmentDir(outdir, segments);
+            } finally {
+                lock.channel().close();
+            }
+            output = new File(outdir, segmentName).getPath();
+        }
+        int firstSegmentDocId = docIdCounter + 1;
+        firstRunDocId = firstSegmentDocId;
+
         /* BSBI indexing algorithm */
         File[] dirlist = rootdir.listFiles();
 
-        /* For each block */
+        /*
+         * Doc ids are handed out up front, so every block owns a contiguous
+         * range and the blocks can then be inverted in any order
+         */
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        List<String> newBlocks = new ArrayList<String>();
+        List<File> allFiles = new ArrayList<File>();
         for (File block : dirlist) {
-            File blockFile = new File(output, block.getName());
+            final File blockFile = new File(output, block.getName());
 
             if (blockFile.isHidden()) {
                 continue; // skip hidden files. break is probably wrong, I'd continue.
             }
+            if (indexedBlocks.contains(block.getName())) {
+                continue;
+            }
 
             blockQueue.add(blockFile);
+            newBlocks.add(block.getName());
 
             File blockDir = new File(root, block.getName());
             File[] filelist = blockDir.listFiles();
 
-            TreeMap<Integer, TreeSet<Integer>> blockMap = new TreeMap<Integer, TreeSet<Integer>>();
-
-            /* For each file */
+            final List<File> files = new ArrayList<File>(filelist.length);
+            final int firstDocId = docIdCounter + 1;
             for (File file : filelist) {
                 if (file.isHidden()) {
                     continue; // skip hidden files. break is probably wrong, I'd continue.
                 }
                 ++totalFileCount;
-                String fileName = block.getName() + "/" + file.getName();
-
-                int docId = ++docIdCounter;
-                docDict.put(fileName, docId);
-
-                BufferedReader reader = new BufferedReader(new FileReader(file));
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    String[] tokens = line.trim().split("\\s+");
-                    for (String token : tokens) {
-                        if (!termDict.containsKey(token)) {
-                            termDict.put(token, wordIdCounter++);
-                        }
-                        int termId = termDict.get(token);
-                        if (!blockMap.containsKey(termId)) {
-                            blockMap.put(termId, new TreeSet<Integer>());
-                        }
-                        blockMap.get(termId).add(docId);
-                    }
-                }
-                reader.close();
-            }
-
-            /* Sort and output */
-            if (!blockFile.createNewFile()) {
-                System.err.println("Create new block failure.");
-                return;
+                docDict.put(block.getName() + "/" + file.getName(), ++docIdCounter);
+                files.add(file);
             }
+            allFiles.addAll(files);
 
-            RandomAccessFile bfc = new RandomAccessFile(blockFile, "rw");
-            FileChannel fc = bfc.getChannel();
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    invertBlock(files, firstDocId, blockFile);
+                    return null;
+                }
+            });
+        }
 
-            for (int termId : blockMap.keySet()) {
-                writePosting(fc, new PostingList(termId, new ArrayList<Integer>(blockMap.get(termId))));
+        docLengths = new int[docIdCounter - firstSegmentDocId + 1];
+
+        /*
+         * SPIMI inverts every doc in one pass, cutting runs by memory use
+         * instead of by block. Otherwise a pool of numThreads workers inverts
+         * the blocks, each into its own block file.
+         */
+        SpimiIndexer spimi = null;
+        if (spimiBudget > 0) {
+            spimi = new SpimiIndexer(index, positional, frequencies, spimiBudget << 20, new File(output));
+            int docId = firstSegmentDocId;
+            for (File file : allFiles) {
+                docLengths[docId - firstSegmentDocId] = spimi.invert(file, docId);
+                docId++;
+            }
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+            try {
+                for (Future<Void> future : pool.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new RuntimeException(e.getCause());
+            } finally {
+                pool.shutdown();
             }
-
-            bfc.close();
         }
 
         /* Required: output total number of files. */
         System.out.println(totalFileCount);
 
-        /* Merge blocks */
-        while (true) {
-            if (blockQueue.size() <= 1) break;
+        if (incremental && newBlocks.isEmpty()) {
+            new File(output).delete();
+            return;
+        }
+
+        if (spimi != null) {
+            spimi.finish(docDict, binaryDict);
+        } else {
+            /*
+             * Merge blocks, up to mergeFanIn of them per pass. A lone block
+             * still gets one pass so that its posting offsets are recorded.
+             */
+            int mergeCounter = 0;
+            while (blockQueue.size() > 1 || (mergeCounter == 0 && !blockQueue.isEmpty())) {
+                int fanIn = mergeFanIn <= 0 ? blockQueue.size() : Math.min(mergeFanIn, blockQueue.size());
+                List<File> blocks = new ArrayList<File>(fanIn);
+                for (int i = 0; i < fanIn; i++) {
+                    blocks.add(blockQueue.removeFirst());
+                }
 
-            File b1 = blockQueue.removeFirst();
-            File b2 = blockQueue.removeFirst();
+                File combfile = new File(output, "merge+" + (++mergeCounter));
+                if (!combfile.createNewFile()) {
+                    System.err.println("Create new block failure.");
+                    return;
+                }
 
-            File combfile = new File(output, b1.getName() + "+" + b2.getName());
-            if (!combfile.createNewFile()) {
-                System.err.println("Create new block failure.");
-                return;
+                mergeBlocks(blocks, combfile);
+                for (File block : blocks) {
+                    block.delete();
+                }
+                blockQueue.add(combfile);
+            }
+            if (blockQueue.size() != 1) {
+                throw new IllegalStateException("Merging left " + blockQueue.size() + " files instead of one");
             }
 
-            RandomAccessFile bf1 = new RandomAccessFile(b1, "r");
-            RandomAccessFile bf2 = new RandomAccessFile(b2, "r");
-            RandomAccessFile mf = new RandomAccessFile(combfile, "rw");
-
-            FileChannel bfc1 = bf1.getChannel();
-            FileChannel bfc2 = bf2.getChannel();
-            FileChannel mfc = mf.getChannel();
-            PostingList p1, p2;
+            /* Dump constructed index back into file system */
+            File indexFile = blockQueue.removeFirst();
+            indexFile.renameTo(new File(output, "corpus.index"));
+            writeDictionaries(new File(output), termDict, docDict, postingDict, binaryDict);
+        }
 
-            do {
-                p1 = index.readPosting(bfc1);
-                p2 = index.readPosting(bfc2);
-                while (p1 != null && (p2 == null || p1.getTermId() < p2.getTermId())) {
-                    writePosting(mfc, p1);
-                    p1 = index.readPosting(bfc1);
-                }
-                while (p2 != null && (p1 == null || p2.getTermId() < p1.getTermId())) {
-                    writePosting(mfc, p2);
-                    p2 = index.readPosting(bfc2);
-                }
-                if (p1 != null && p2 != null && p1.getTermId() == p2.getTermId()) {
-                    PostingList p = PostingList.merge(p1, p2);
-                    writePosting(mfc, p);
-                }
-            } while (p1 != null || p2 != null);
+        writeDocLengths(new File(output), docLengths);
+        mark(new File(output), POSITIONAL_MARKER, positional);
+        mark(new File(output), FREQUENCIES_MARKER, frequencies);
+
+        /*
+         * Publish the new segment, after which it is searchable. Merging it
+         * with older segments is left to a separate SegmentMerger run, so the
+         * cost of a merge never falls on the run that adds the segment. The
+         * manifest is read again since a merge may have replaced segments in
+         * the meantime; it only ever appends to the end.
+         */
+        if (incremental) {
+            FileLock lock = SegmentManifest.lock(outdir);
+            try {
+                segments = SegmentManifest.read(outdir);
+                segments.add(new SegmentManifest.Entry(segmentName, firstSegmentDocId, docIdCounter, newBlocks));
+                SegmentManifest.write(outdir, segments);
+            } finally {
+                lock.channel().close();
+            }
+        }
+    }
 
-            bf1.close();
-            bf2.close();
-            mf.close();
-            b1.delete();
-            b2.delete();
-            blockQueue.add(combfile);
+    /*
+     * Create a marker that tells Query how to read the postings, such as
+     * POSITIONAL_MARKER, or remove it
+     */
+    static void mark(File dir, String marker, boolean present) throws IOException {
+        File markerFile = new File(dir, marker);
+        if (present) {
+            markerFile.createNewFile();
+        } else {
+            markerFile.delete();
         }
+    }
 
-        /* Dump constructed index back into file system */
-        File indexFile = blockQueue.removeFirst();
-        indexFile.renameTo(new File(output, "corpus.index"));
+    /* Write doc.len, the length in tokens of each doc of dir in doc id order */
+    static void writeDocLengths(File dir, int[] lengths) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(lengths.length * BaseIndex.INT_BYTES);
+        buf.asIntBuffer().put(lengths);
+        RandomAccessFile lengthFile = new RandomAccessFile(new File(dir, DOC_LENGTHS_FILE), "rw");
+        lengthFile.setLength(0);
+        lengthFile.getChannel().write(buf);
+        lengthFile.close();
+    }
 
-        BufferedWriter termWriter = new BufferedWriter(new FileWriter(new File(output, "term.dict")));
+    /* Write corpus.dict, or the text term.dict, doc.dict and posting.dict, to dir */
+    static void writeDictionaries(File dir, Map<String, Integer> termDict, Map<String, Integer> docDict,
+            Map<Integer, Pair<Long, Integer>> postingDict, boolean binary) throws IOException {
+        if (binary) {
+            BinaryDictionary.write(new File(dir, "corpus.dict"), termDict, docDict, postingDict);
+            return;
+        }
+
+        BufferedWriter termWriter = new BufferedWriter(new FileWriter(new File(dir, "term.dict")));
         for (String term : termDict.keySet()) {
             termWriter.write(term + "\t" + termDict.get(term) + "\n");
         }
         termWriter.close();
 
-        BufferedWriter docWriter = new BufferedWriter(new FileWriter(new File(output, "doc.dict")));
-        for (String doc : docDict.keySet()) {
-            docWriter.write(doc + "\t" + docDict.get(doc) + "\n");
-        }
-        docWriter.close();
+        writeDocDict(dir, docDict);
 
-        BufferedWriter postWriter = new BufferedWriter(new FileWriter(new File(output, "posting.dict")));
+        BufferedWriter postWriter = new BufferedWriter(new FileWriter(new File(dir, "posting.dict")));
         for (Integer termId : postingDict.keySet()) {
             postWriter.write(termId + "\t" + postingDict.get(termId).getFirst() + "\t" + postingDict.get(termId).getSecond() + "\n");
         }
         postWriter.close();
     }
+
+    static void writeDocDict(File dir, Map<String, Integer> docDict) throws IOException {
+        BufferedWriter docWriter = new BufferedWriter(new FileWriter(new File(dir, "doc.dict")));
+        for (String doc : docDict.keySet()) {
+            docWriter.write(doc + "\t" + docDict.get(doc) + "\n");
+        }
+        docWriter.close();
+    }
 }
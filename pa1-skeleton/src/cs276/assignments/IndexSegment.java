@@ -0,0 +1,378 @@
+package cs276.assignments;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * One index directory opened for reading: corpus.index together with either
+ * the text dictionaries (term.dict, doc.dict, posting.dict) or corpus.dict.
+ * A plain index is a single segment; an incremental index is a list of them,
+ * see SegmentManifest. Doc ids are global, a segment owns the contiguous
+ * range minDocId() to maxDocId().
+ */
+public class IndexSegment {
+
+    // Term id -> position in index file
+    private final Map<Integer, Long> posDict = new TreeMap<Integer, Long>();
+    // Term id -> document frequency
+    private final Map<Integer, Integer> freqDict = new TreeMap<Integer, Integer>();
+    // Doc id -> doc name dictionary
+    private final TreeMap<Integer, String> docDict = new TreeMap<Integer, String>();
+    // Term -> term id dictionary
+    private final Map<String, Integer> termDict = new TreeMap<String, Integer>();
+    // Binary form of all of the above, used instead of them when present
+    private BinaryDictionary binaryDict = null;
+    // Doc id range of the segment
+    private int minDocId = 0;
+    private int maxDocId = 0;
+    // Length in tokens of each doc from minDocId on, null for an index without doc.len
+    private int[] docLengths = null;
+    private long totalDocLength = 0;
+    private int minDocLength = Integer.MAX_VALUE;
+
+    private final File dir;
+    private final BaseIndex index;
+    private final RandomAccessFile indexFile;
+    private final FileChannel fc;
+    // Memory map of the index file, null when reading through the channel
+    private MappedIndexFile mappedIndex = null;
+    // Cache of decoded postings and the segment's owner id in it, null if none
+    private PostingCache cache = null;
+    private int cacheOwner;
+
+    private IndexSegment(File dir, BaseIndex index, RandomAccessFile indexFile) {
+        this.dir = dir;
+        this.index = index;
+        this.indexFile = indexFile;
+        this.fc = indexFile.getChannel();
+    }
+
+    /*
+     * Load the dictionaries of the index in dir. codec is the doc id codec,
+     * it is wrapped in PositionalIndex or FrequencyIndex if the segment has
+     * positions or frequencies.
+     */
+    public static IndexSegment open(File dir, BaseIndex codec, boolean mmap) throws IOException {
+        if (new File(dir, Index.POSITIONAL_MARKER).exists()) {
+            codec = new PositionalIndex(codec);
+        } else if (new File(dir, Index.FREQUENCIES_MARKER).exists()) {
+            codec = new FrequencyIndex(codec);
+        }
+        IndexSegment segment = new IndexSegment(dir, codec, new RandomAccessFile(new File(dir, "corpus.index"), "r"));
+        try {
+            segment.load(mmap);
+        } catch (IOException e) {
+            segment.close();
+            throw e;
+        }
+        return segment;
+    }
+
+    private void load(boolean mmap) throws IOException {
+        if (mmap) {
+            mappedIndex = new MappedIndexFile(fc);
+        }
+
+        File docLengthFile = new File(dir, Index.DOC_LENGTHS_FILE);
+        if (docLengthFile.exists()) {
+            loadDocLengths(docLengthFile);
+        }
+
+        String line = null;
+        File binaryDictFile = new File(dir, "corpus.dict");
+        if (binaryDictFile.exists()) {
+            binaryDict = BinaryDictionary.read(binaryDictFile);
+            minDocId = binaryDict.minDocId();
+            maxDocId = binaryDict.maxDocId();
+            return;
+        }
+
+        /* Term dictionary */
+        BufferedReader termReader = new BufferedReader(new FileReader(new File(dir, "term.dict")));
+        while ((line = termReader.readLine()) != null) {
+            String[] tokens = line.split("\t");
+            termDict.put(tokens[0], Integer.parseInt(tokens[1]));
+        }
+        termReader.close();
+
+        /* Doc dictionary */
+        BufferedReader docReader = new BufferedReader(new FileReader(new File(dir, "doc.dict")));
+        while ((line = docReader.readLine()) != null) {
+            String[] tokens = line.split("\t");
+            docDict.put(Integer.parseInt(tokens[1]), tokens[0]);
+        }
+        docReader.close();
+        if (!docDict.isEmpty()) {
+            minDocId = docDict.firstKey();
+            maxDocId = docDict.lastKey();
+        }
+
+        /* Posting dictionary */
+        BufferedReader postReader = new BufferedReader(new FileReader(new File(dir, "posting.dict")));
+        while ((line = postReader.readLine()) != null) {
+            String[] tokens = line.split("\t");
+            posDict.put(Integer.parseInt(tokens[0]), Long.parseLong(tokens[1]));
+            freqDict.put(Integer.parseInt(tokens[0]), Integer.parseInt(tokens[2]));
+        }
+        postReader.close();
+    }
+
+    /* Look postings up in cache before decoding them, and keep them there */
+    public void setCache(PostingCache cache) {
+        this.cache = cache;
+        this.cacheOwner = cache.register();
+    }
+
+    private void loadDocLengths(File docLengthFile) throws IOException {
+        RandomAccessFile lengthFile = new RandomAccessFile(docLengthFile, "r");
+        try {
+            ByteBuffer buf = ByteBuffer.allocate((int) lengthFile.length());
+            lengthFile.getChannel().read(buf);
+            buf.flip();
+            docLengths = new int[buf.remaining() / BaseIndex.INT_BYTES];
+            buf.asIntBuffer().get(docLengths);
+        } finally {
+            lengthFile.close();
+        }
+        for (int length : docLengths) {
+            totalDocLength += length;
+            minDocLength = Math.min(minDocLength, length);
+        }
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    public boolean isPositional() {
+        return index instanceof PositionalIndex;
+    }
+
+    public boolean hasFrequencies() {
+        return index instanceof FrequencyIndex;
+    }
+
+    public int minDocId() {
+        return minDocId;
+    }
+
+    public int maxDocId() {
+        return maxDocId;
+    }
+
+    public boolean hasDocLengths() {
+        return docLengths != null;
+    }
+
+    /* Doc lengths in tokens, from minDocId() on */
+    public int[] docLengths() {
+        return docLengths;
+    }
+
+    public int docLength(int docId) {
+        return docLengths[docId - minDocId];
+    }
+
+    public int numDocs() {
+        return docLengths != null ? docLengths.length : docs().size();
+    }
+
+    public long totalDocLength() {
+        return totalDocLength;
+    }
+
+    /* Length of the shortest doc, which bounds the score any doc can reach */
+    public int minDocLength() {
+        return minDocLength;
+    }
+
+    /* Dictionary lookups, from the binary dictionary if one was loaded */
+    public Integer lookupTermId(String term) {
+        if (binaryDict == null) return termDict.get(term);
+        int termId = binaryDict.termId(term);
+        return termId < 0 ? null : termId;
+    }
+
+    private Long postingPosition(int termId) {
+        if (binaryDict == null) return posDict.get(termId);
+        long pos = binaryDict.postingOffset(termId);
+        return pos < 0 ? null : pos;
+    }
+
+    public int docFreq(int termId) {
+        return binaryDict == null ? freqDict.get(termId) : binaryDict.docFreq(termId);
+    }
+
+    public String docName(int docId) {
+        return binaryDict == null ? docDict.get(docId) : binaryDict.docName(docId);
+    }
+
+    /* Every term -> term id, in term order */
+    public Map<String, Integer> terms() {
+        return binaryDict == null ? termDict : binaryDict.terms();
+    }
+
+    /* Every doc name -> doc id */
+    public Map<String, Integer> docs() {
+        Map<String, Integer> docs = new TreeMap<String, Integer>();
+        for (int docId = minDocId; docId <= maxDocId; docId++) {
+            String name = docName(docId);
+            if (name != null) docs.put(name, docId);
+        }
+        return docs;
+    }
+
+    /* Read back the posting list with a given termID, null if it has none */
+    public PostingList readPosting(int termId) throws IOException {
+        if (cache == null) return decodePosting(termId);
+        PostingList p = cache.get(cacheOwner, termId);
+        if (p == null) {
+            p = decodePosting(termId);
+            if (p != null) cache.put(cacheOwner, termId, p);
+        }
+        return p;
+    }
+
+    private PostingList decodePosting(int termId) throws IOException {
+        Long pos = postingPosition(termId);
+        if (pos == null) return null;
+        if (mappedIndex != null) return index.readPosting(mappedIndex.at(pos));
+        /* The channel position is shared by every server thread */
+        synchronized (fc) {
+            return index.readPosting(fc.position(pos));
+        }
+    }
+
+    /*
+     * Open an iterator over a posting list with a given termID. From a memory
+     * map it decodes lazily and can follow skip pointers; otherwise the list
+     * is read back whole first, and so it is with a cache, which only holds
+     * whole lists.
+     */
+    public PostingIterator openPosting(int termId) throws IOException {
+        Long pos = postingPosition(termId);
+        if (pos == null) return null;
+        if (mappedIndex != null && cache == null) return index.iterator(mappedIndex.at(pos));
+        return readPosting(termId).iterator();
+    }
+
+    /*
+     * Largest term frequency in the posting list with a given termID, read
+     * from the front of the posting without decoding it; 1 when the index
+     * keeps no frequencies and 0 when the term has no posting
+     */
+    public int maxFreq(int termId) throws IOException {
+        if (!isPositional() && !hasFrequencies()) return 1;
+        Long pos = postingPosition(termId);
+        if (pos == null) return 0;
+        if (mappedIndex != null) return mappedIndex.at(pos).getInt();
+        ByteBuffer buf = ByteBuffer.allocate(BaseIndex.INT_BYTES);
+        fc.read(buf, pos);
+        return buf.getInt(0);
+    }
+
+    /*
+     * Open an iterator over the doc ids and term frequencies of a posting
+     * list with a given termID, decoding lazily from a memory map like
+     * openPosting. Without frequencies in the index every freq is 1.
+     */
+    public FrequencyPostingIterator openFrequencies(int termId) throws IOException {
+        Long pos = postingPosition(termId);
+        if (pos == null) return null;
+        if (mappedIndex != null && cache == null) {
+            if (isPositional()) return ((PositionalIndex) index).positionalIterator(mappedIndex.at(pos));
+            if (hasFrequencies()) return ((FrequencyIndex) index).frequencyIterator(mappedIndex.at(pos));
+            return new UnitFrequencyIterator(index.iterator(mappedIndex.at(pos)));
+        }
+        return readPosting(termId).frequencyIterator();
+    }
+
+    /*
+     * Open an iterator over the doc ids and positions of a posting list with
+     * a given termID. From a memory map the positions are decoded one doc at
+     * a time, only for the docs asked about; otherwise the list is read back
+     * whole first, as openPosting does.
+     */
+    public PositionalPostingIterator openPositional(int termId) throws IOException {
+        if (!isPositional()) {
+            throw new IllegalArgumentException("phrase and proximity queries need a positional index");
+        }
+        Long pos = postingPosition(termId);
+        if (pos == null) return null;
+        if (mappedIndex != null && cache == null) return ((PositionalIndex) index).positionalIterator(mappedIndex.at(pos));
+        return readPosting(termId).positionalIterator();
+    }
+
+    /* The segment as seen by the leaves of a boolean query */
+    public BooleanQuery.Postings postings() {
+        return new BooleanQuery.Postings() {
+            @Override
+            public PostingIterator open(String term) throws IOException {
+                Integer termId = lookupTermId(term);
+                return termId == null ? null : openPosting(termId);
+            }
+
+            @Override
+            public PositionalPostingIterator openPositional(String term) throws IOException {
+                Integer termId = lookupTermId(term);
+                return termId == null ? null : IndexSegment.this.openPositional(termId);
+            }
+
+            @Override
+            public int docFreq(String term) {
+                Integer termId = lookupTermId(term);
+                return termId == null ? 0 : IndexSegment.this.docFreq(termId);
+            }
+
+            @Override
+            public int minDocId() {
+                return minDocId;
+            }
+
+            @Override
+            public int maxDocId() {
+                return maxDocId;
+            }
+        };
+    }
+
+    public void close() throws IOException {
+        indexFile.close();
+    }
+
+    /* A doc id iterator where every doc has frequency 1 */
+    private static class UnitFrequencyIterator implements FrequencyPostingIterator {
+        private final PostingIterator docs;
+
+        UnitFrequencyIterator(PostingIterator docs) {
+            this.docs = docs;
+        }
+
+        @Override
+        public int docId() {
+            return docs.docId();
+        }
+
+        @Override
+        public int next() {
+            return docs.next();
+        }
+
+        @Override
+        public int advance(int target) {
+            return docs.advance(target);
+        }
+
+        @Override
+        public int freq() {
+            return 1;
+        }
+    }
+}
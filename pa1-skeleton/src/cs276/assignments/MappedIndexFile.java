@@ -0,0 +1,39 @@
+package cs276.assignments;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * Read-only memory map of an index file. A single mapping is capped at 2GB,
+ * so larger files are mapped as overlapping segments: segment i starts at
+ * i * SEGMENT_STRIDE and spans up to 2GB, which keeps any posting shorter
+ * than SEGMENT_STRIDE inside the segment its offset falls in.
+ */
+public class MappedIndexFile {
+
+    private static final long SEGMENT_STRIDE = 1L << 30;
+
+    private final MappedByteBuffer[] segments;
+
+    public MappedIndexFile(FileChannel fc) throws IOException {
+        long size = fc.size();
+        int numSegments = (int) Math.max(1, (size + SEGMENT_STRIDE - 1) / SEGMENT_STRIDE);
+        segments = new MappedByteBuffer[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            long start = i * SEGMENT_STRIDE;
+            segments[i] = fc.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, Integer.MAX_VALUE));
+        }
+    }
+
+    /*
+     * A view positioned at the given file offset. The view shares the mapped
+     * memory, so reading a posting from it copies nothing.
+     */
+    public ByteBuffer at(long position) {
+        ByteBuffer view = segments[(int) (position / SEGMENT_STRIDE)].duplicate();
+        view.position((int) (position % SEGMENT_STRIDE));
+        return view;
+    }
+}
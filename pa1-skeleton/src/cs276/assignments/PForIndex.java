@@ -0,0 +1,246 @@
+package cs276.assignments;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/*
+ * Patched frame-of-reference codec. Gaps are cut into blocks of BLOCK_SIZE;
+ * each block picks the bit width b that makes it smallest, packs the low b
+ * bits of every gap into 32-bit words and patches the few gaps that do not
+ * fit (exceptions) from a list of their positions and high bits.
+ *
+ * Layout: termId, docFreq, totalBytes, then per block
+ *   int maxDocId, byte b, byte numExceptions,
+ *   int[ceil(n * b / 32)] packed low bits,
+ *   byte[numExceptions] positions, int[numExceptions] high bits
+ * where n is BLOCK_SIZE except for the last block. The max doc id lets an
+ * iterator step over a block without unpacking it.
+ */
+public class PForIndex implements BaseIndex {
+
+    public static final int BLOCK_SIZE = 128;
+    private static final int BLOCK_HEADER_BYTES = INT_BYTES + 2;
+
+    @Override
+    public PostingList readPosting(FileChannel fc) throws IOException {
+        ByteBuffer metaBuf = ByteBuffer.allocate(INT_BYTES * 3);
+        if (fc.read(metaBuf) == -1) return null;
+
+        metaBuf.flip();
+        int termId = metaBuf.getInt();
+        int docFreq = metaBuf.getInt();
+        int totalBytes = metaBuf.getInt();
+
+        ByteBuffer blocksBuf = ByteBuffer.allocate(totalBytes);
+        fc.read(blocksBuf);
+        blocksBuf.flip();
+
+        return decodePosting(termId, blocksBuf, docFreq);
+    }
+
+    @Override
+    public PostingList readPosting(ByteBuffer buf) {
+        int termId = buf.getInt();
+        int docFreq = buf.getInt();
+        buf.getInt();
+        return decodePosting(termId, buf, docFreq);
+    }
+
+    @Override
+    public PostingIterator iterator(ByteBuffer buf) {
+        buf.getInt();
+        int docFreq = buf.getInt();
+        int totalBytes = buf.getInt();
+        PostingIterator iter = new PForPostingIterator(buf, buf.position(), docFreq);
+        buf.position(buf.position() + totalBytes);
+        return iter;
+    }
+
+    private static PostingList decodePosting(int termId, ByteBuffer buf, int docFreq) {
+        int[] docIds = new int[docFreq];
+        int pos = buf.position();
+        int prevDocId = 0;
+        for (int start = 0; start < docFreq; start += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, docFreq - start);
+            pos = decodeBlock(buf, pos, n, prevDocId, docIds, start);
+            prevDocId = docIds[start + n - 1];
+        }
+        buf.position(pos);
+        return new PostingList(termId, docIds);
+    }
+
+    /*
+     * Unpack the n doc ids of the block at pos into out[off...], adding the
+     * gaps onto prevDocId. Returns the position just after the block.
+     */
+    private static int decodeBlock(ByteBuffer buf, int pos, int n, int prevDocId, int[] out, int off) {
+        int b = buf.get(pos + INT_BYTES) & 0xff;
+        int numExceptions = buf.get(pos + INT_BYTES + 1) & 0xff;
+        int words = pos + BLOCK_HEADER_BYTES;
+        long mask = (1L << b) - 1;
+
+        for (int i = 0; i < n; i++) {
+            int bit = i * b;
+            int w = words + ((bit >>> 5) << 2);
+            int s = bit & 31;
+            long x = (buf.getInt(w) & 0xffffffffL) >>> s;
+            if (s + b > 32) x |= (long) buf.getInt(w + INT_BYTES) << (32 - s);
+            out[off + i] = (int) (x & mask);
+        }
+
+        int exceptions = words + numWords(n, b) * INT_BYTES;
+        int highBits = exceptions + numExceptions;
+        for (int e = 0; e < numExceptions; e++) {
+            out[off + (buf.get(exceptions + e) & 0xff)] |= buf.getInt(highBits + e * INT_BYTES) << b;
+        }
+
+        int docId = prevDocId;
+        for (int i = 0; i < n; i++) {
+            docId += out[off + i];
+            out[off + i] = docId;
+        }
+        return highBits + numExceptions * INT_BYTES;
+    }
+
+    private static int blockBytes(ByteBuffer buf, int pos, int n) {
+        int b = buf.get(pos + INT_BYTES) & 0xff;
+        int numExceptions = buf.get(pos + INT_BYTES + 1) & 0xff;
+        return BLOCK_HEADER_BYTES + numWords(n, b) * INT_BYTES + numExceptions * (1 + INT_BYTES);
+    }
+
+    private static int numWords(int n, int b) {
+        return (n * b + 31) >>> 5;
+    }
+
+    private static int bitWidth(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value);
+    }
+
+    @Override
+    public void writePosting(FileChannel fc, PostingList p) throws IOException {
+        int size = p.size();
+        int[] docIds = p.getPostings();
+        int[] gaps = VBIndex.gapEncode(docIds, size);
+
+        int numBlocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        ByteBuffer buf = ByteBuffer.allocate(INT_BYTES * 3 + numBlocks * BLOCK_HEADER_BYTES + size * (INT_BYTES * 2 + 1));
+        buf.position(INT_BYTES * 3);
+
+        int[] words = new int[BLOCK_SIZE];
+        int[] widthCounts = new int[33];
+        for (int start = 0; start < size; start += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, size - start);
+
+            /* Pick the width that minimises packed words plus exceptions */
+            Arrays.fill(widthCounts, 0);
+            for (int i = 0; i < n; i++) {
+                widthCounts[bitWidth(gaps[start + i])]++;
+            }
+            int b = 32, bestBytes = Integer.MAX_VALUE, numExceptions = 0;
+            int above = 0;
+            for (int w = 32; w >= 0; w--) {
+                int bytes = numWords(n, w) * INT_BYTES + above * (1 + INT_BYTES);
+                if (bytes <= bestBytes) {
+                    bestBytes = bytes;
+                    b = w;
+                    numExceptions = above;
+                }
+                above += widthCounts[w];
+            }
+
+            /* Pack the low bits */
+            int nw = numWords(n, b);
+            Arrays.fill(words, 0, nw, 0);
+            long mask = (1L << b) - 1;
+            for (int i = 0; i < n; i++) {
+                long v = gaps[start + i] & mask;
+                int bit = i * b;
+                int w = bit >>> 5;
+                int s = bit & 31;
+                words[w] |= (int) (v << s);
+                if (s + b > 32) words[w + 1] |= (int) (v >>> (32 - s));
+            }
+
+            buf.putInt(docIds[start + n - 1]);
+            buf.put((byte) b);
+            buf.put((byte) numExceptions);
+            for (int w = 0; w < nw; w++) {
+                buf.putInt(words[w]);
+            }
+            for (int i = 0; i < n; i++) {
+                if (bitWidth(gaps[start + i]) > b) buf.put((byte) i);
+            }
+            for (int i = 0; i < n; i++) {
+                if (bitWidth(gaps[start + i]) > b) buf.putInt(gaps[start + i] >>> b);
+            }
+        }
+
+        buf.putInt(0, p.getTermId());
+        buf.putInt(INT_BYTES, size);
+        buf.putInt(INT_BYTES * 2, buf.position() - INT_BYTES * 3);
+        buf.flip();
+        fc.write(buf);
+    }
+
+    /* Unpacks one block at a time and steps over blocks below the target */
+    private static class PForPostingIterator implements PostingIterator {
+        private final ByteBuffer buf;
+        private final int docFreq;
+        private final int[] block = new int[BLOCK_SIZE];
+        private int blockPos;
+        private int blockStart = 0;
+        private int blockLength = 0;
+        private boolean decoded = false;
+        private int prevBlockMax = 0;
+        private int index = -1;
+        private int docId = -1;
+
+        PForPostingIterator(ByteBuffer buf, int blockPos, int docFreq) {
+            this.buf = buf;
+            this.blockPos = blockPos;
+            this.docFreq = docFreq;
+            this.blockLength = Math.min(BLOCK_SIZE, docFreq);
+        }
+
+        @Override
+        public int docId() {
+            return docId;
+        }
+
+        /* Move on to the following block without unpacking the current one */
+        private boolean nextBlock() {
+            if (blockStart + blockLength >= docFreq) return false;
+            prevBlockMax = buf.getInt(blockPos);
+            blockPos += blockBytes(buf, blockPos, blockLength);
+            blockStart += blockLength;
+            blockLength = Math.min(BLOCK_SIZE, docFreq - blockStart);
+            decoded = false;
+            index = -1;
+            return true;
+        }
+
+        @Override
+        public int next() {
+            if (docId == NO_MORE_DOCS) return docId;
+            if (index + 1 >= blockLength && !nextBlock()) return docId = NO_MORE_DOCS;
+            if (!decoded) {
+                decodeBlock(buf, blockPos, blockLength, prevBlockMax, block, 0);
+                decoded = true;
+            }
+            return docId = block[++index];
+        }
+
+        @Override
+        public int advance(int target) {
+            if (docId >= target) return docId;
+            if (docFreq == 0) return docId = NO_MORE_DOCS;
+            while (buf.getInt(blockPos) < target) {
+                if (!nextBlock()) return docId = NO_MORE_DOCS;
+            }
+            while (next() < target);
+            return docId;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package cs276.assignments;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import cs276.util.BitReader;
+import cs276.util.BitWriter;
+
+/*
+ * Adds term positions to the postings of another codec. Each posting is
+ *   int maxFreq, the doc id posting of the wrapped codec,
+ *   int posBytes, byte[posBytes] positions
+ * where maxFreq is the largest term frequency, for bounds on a ranked score
+ * (see IndexSegment.maxFreq), and the positions hold, for every doc in order, its term frequency and then the gaps
+ * between its positions (the first counted from -1, so every number is at
+ * least 1). They are gamma coded when wrapping GammaIndex and VB coded
+ * otherwise.
+ */
+public class PositionalIndex implements BaseIndex {
+
+    private final BaseIndex docIndex;
+    private final boolean gamma;
+
+    public PositionalIndex(BaseIndex docIndex) {
+        this.docIndex = docIndex;
+        this.gamma = docIndex instanceof GammaIndex;
+    }
+
+    @Override
+    public PostingList readPosting(FileChannel fc) throws IOException {
+        ByteBuffer metaBuf = ByteBuffer.allocate(INT_BYTES);
+        if (fc.read(metaBuf) == -1) return null;
+        PostingList p = docIndex.readPosting(fc);
+
+        metaBuf.clear();
+        fc.read(metaBuf);
+        metaBuf.flip();
+        int posBytes = metaBuf.getInt();
+        ByteBuffer posBuf = ByteBuffer.allocate(posBytes);
+        fc.read(posBuf);
+        posBuf.flip();
+
+        return decodePositions(p, posBuf, posBytes);
+    }
+
+    @Override
+    public PostingList readPosting(ByteBuffer buf) {
+        buf.getInt();
+        PostingList p = docIndex.readPosting(buf);
+        int posBytes = buf.getInt();
+        return decodePositions(p, buf, posBytes);
+    }
+
+    /* Doc ids only, the positions are stepped over */
+    @Override
+    public PostingIterator iterator(ByteBuffer buf) {
+        buf.getInt();
+        PostingIterator iter = docIndex.iterator(buf);
+        int posBytes = buf.getInt();
+        buf.position(buf.position() + posBytes);
+        return iter;
+    }
+
+    /* Iterate over the doc ids and positions of the posting at the buffer's position */
+    public PositionalPostingIterator positionalIterator(ByteBuffer buf) {
+        buf.getInt();
+        PostingIterator docs = docIndex.iterator(buf);
+        int posBytes = buf.getInt();
+        PositionalPostingIterator iter = new StreamingPositionalIterator(docs, buf.duplicate(), posBytes);
+        buf.position(buf.position() + posBytes);
+        return iter;
+    }
+
+    /* Decode the posBytes of positions at the buffer's position for the docs of p */
+    private PostingList decodePositions(PostingList p, ByteBuffer buf, int posBytes) {
+        int start = buf.position();
+        BitReader bits = gamma ? new BitReader(buf.duplicate(), posBytes) : null;
+
+        int size = p.size();
+        int[] posEnds = new int[size];
+        int[] positions = new int[Math.max(1, size)];
+        int numPositions = 0;
+        /* Last number read and where the next one starts */
+        int[] numberEndIndex = { 0, start };
+        for (int i = 0; i < size; i++) {
+            int tf = readNumber(buf, bits, numberEndIndex);
+            if (numPositions + tf > positions.length) {
+                positions = Arrays.copyOf(positions, Math.max(numPositions + tf, positions.length * 2));
+            }
+            int position = -1;
+            for (int k = 0; k < tf; k++) {
+                position += readNumber(buf, bits, numberEndIndex);
+                positions[numPositions++] = position;
+            }
+            posEnds[i] = numPositions;
+        }
+        buf.position(start + posBytes);
+
+        return new PostingList(p.getTermId(), p.getPostings(), size, posEnds, positions);
+    }
+
+    /*
+     * Read a gamma code from bits if there are any, else a VB code from buf
+     * at numberEndIndex[1], which is moved past it
+     */
+    static int readNumber(ByteBuffer buf, BitReader bits, int[] numberEndIndex) {
+        if (bits != null) return bits.readGamma();
+        int number = 0;
+        int next = numberEndIndex[1];
+        byte b;
+        do {
+            b = buf.get(next++);
+            number = (number << 7) + (b & 0b01111111);
+        } while ((b & 0b10000000) == 0);
+        numberEndIndex[0] = number;
+        numberEndIndex[1] = next;
+        return number;
+    }
+
+    @Override
+    public void writePosting(FileChannel fc, PostingList p) throws IOException {
+        int size = p.size();
+        FrequencyIndex.writeMaxFreq(fc, p);
+        docIndex.writePosting(fc, p);
+
+        int[] positions = p.getPositions();
+        byte[] posBytes;
+        int numBytes;
+        if (gamma) {
+            BitWriter bits = new BitWriter();
+            for (int i = 0; i < size; i++) {
+                int start = p.positionStart(i), end = p.positionEnd(i);
+                bits.writeGamma(end - start);
+                int prev = -1;
+                for (int k = start; k < end; k++) {
+                    bits.writeGamma(positions[k] - prev);
+                    prev = positions[k];
+                }
+            }
+            posBytes = bits.toByteArray();
+            numBytes = posBytes.length;
+        } else {
+            int numPositions = size == 0 ? 0 : p.positionEnd(size - 1);
+            posBytes = new byte[(INT_BYTES + 1) * (size + numPositions)];
+            numBytes = 0;
+            byte[] outputVBCode = new byte[INT_BYTES + 1];
+            for (int i = 0; i < size; i++) {
+                int start = p.positionStart(i), end = p.positionEnd(i);
+                int n = VBIndex.VBEncodeInteger(end - start, outputVBCode);
+                System.arraycopy(outputVBCode, 0, posBytes, numBytes, n);
+                numBytes += n;
+                int prev = -1;
+                for (int k = start; k < end; k++) {
+                    n = VBIndex.VBEncodeInteger(positions[k] - prev, outputVBCode);
+                    System.arraycopy(outputVBCode, 0, posBytes, numBytes, n);
+                    numBytes += n;
+                    prev = positions[k];
+                }
+            }
+        }
+
+        ByteBuffer posBuf = ByteBuffer.allocate(INT_BYTES + numBytes);
+        posBuf.putInt(numBytes);
+        posBuf.put(posBytes, 0, numBytes);
+        posBuf.flip();
+        fc.write(posBuf);
+    }
+
+    /*
+     * Reads the positions of a doc only when they are asked for, straight
+     * from the buffer. The positions of the docs passed on the way there are
+     * stepped over without being stored. With no skip table into the
+     * positions, the docs passed have to be counted, so advance steps the
+     * wrapped iterator one doc at a time instead of following its skips.
+     */
+    private class StreamingPositionalIterator implements PositionalPostingIterator {
+        private final PostingIterator docs;
+        private final ByteBuffer buf;
+        private final int posBytes;
+        /* Gamma codes are only copied out once positions are first asked for */
+        private BitReader bits;
+        private final int[] numberEndIndex;
+        /* Index of the current doc, and of the next doc whose numbers the buffer holds */
+        private int index = -1;
+        private int posIndex = 0;
+        private int[] positions = new int[16];
+        private int numPositions = 0;
+
+        StreamingPositionalIterator(PostingIterator docs, ByteBuffer buf, int posBytes) {
+            this.docs = docs;
+            this.buf = buf;
+            this.posBytes = posBytes;
+            this.numberEndIndex = new int[] { 0, buf.position() };
+        }
+
+        @Override
+        public int docId() {
+            return docs.docId();
+        }
+
+        @Override
+        public int next() {
+            int docId = docs.next();
+            if (docId != NO_MORE_DOCS) index++;
+            return docId;
+        }
+
+        @Override
+        public int advance(int target) {
+            int docId = docs.docId();
+            while (docId < target) {
+                docId = next();
+            }
+            return docId;
+        }
+
+        @Override
+        public int freq() {
+            decode();
+            return numPositions;
+        }
+
+        @Override
+        public int[] positions() {
+            decode();
+            return positions;
+        }
+
+        @Override
+        public int positionStart() {
+            return 0;
+        }
+
+        @Override
+        public int positionEnd() {
+            decode();
+            return numPositions;
+        }
+
+        /* Decode the current doc's positions, stepping over those of the docs before it */
+        private void decode() {
+            if (posIndex > index) return;
+            if (gamma && bits == null) bits = new BitReader(buf.duplicate(), posBytes);
+            for (; posIndex < index; posIndex++) {
+                int tf = readNumber(buf, bits, numberEndIndex);
+                skipNumbers(tf);
+            }
+            int tf = readNumber(buf, bits, numberEndIndex);
+            if (tf > positions.length) positions = new int[Math.max(tf, 2 * positions.length)];
+            int position = -1;
+            for (int k = 0; k < tf; k++) {
+                position += readNumber(buf, bits, numberEndIndex);
+                positions[k] = position;
+            }
+            numPositions = tf;
+            posIndex++;
+        }
+
+        /* Step over n numbers; a VB code ends at the first byte with its top bit set */
+        private void skipNumbers(int n) {
+            if (bits != null) {
+                for (int k = 0; k < n; k++) {
+                    bits.readGamma();
+                }
+                return;
+            }
+            int next = numberEndIndex[1];
+            for (int k = 0; k < n; k++) {
+                while ((buf.get(next++) & 0b10000000) == 0);
+            }
+            numberEndIndex[1] = next;
+        }
+    }
+}
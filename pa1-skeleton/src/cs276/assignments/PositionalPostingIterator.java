@@ -0,0 +1,17 @@
+package cs276.assignments;
+
+/*
+ * PostingIterator over a positional posting that also hands out the
+ * positions of the current doc, decoding them only when asked. The current
+ * doc's positions are positions()[positionStart() ... positionEnd() - 1], in
+ * increasing order; the array may be reused once the iterator moves. freq()
+ * is their number.
+ */
+public interface PositionalPostingIterator extends FrequencyPostingIterator {
+
+    public int[] positions();
+
+    public int positionStart();
+
+    public int positionEnd();
+}
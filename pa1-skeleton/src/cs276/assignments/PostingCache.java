@@ -0,0 +1,221 @@
+package cs276.assignments;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/*
+ * Size bounded cache of decoded posting lists, shared by all the segments of
+ * an index and by every query thread. An entry weighs the bytes of the arrays
+ * behind its posting list, so one long head term can take the room of
+ * thousands of rare ones, and the cache holds at most capacity bytes.
+ *
+ * Entries are kept in eviction order in a TreeSet: least recently used first
+ * under LRU, least often used first under LFU, with ties going to the least
+ * recently used. Lists larger than the whole cache are never admitted.
+ *
+ * Besides the posting of a term, an entry can hold the intersection of the
+ * postings of several terms, keyed by their term ids in the order they were
+ * intersected. getPrefix then finds the longest cached prefix of a longer
+ * conjunction to carry on from.
+ */
+public class PostingCache {
+
+    public enum Policy {
+        LRU, LFU
+    }
+
+    /* Intersection of the first length terms of a conjunction */
+    public static class Prefix {
+        public final int length;
+        public final PostingList posting;
+
+        Prefix(int length, PostingList posting) {
+            this.length = length;
+            this.posting = posting;
+        }
+    }
+
+    /* Key of an intersection, the term ids in order */
+    private static class TermsKey {
+        final int owner;
+        final int[] termIds;
+
+        TermsKey(int owner, int[] termIds) {
+            this.owner = owner;
+            this.termIds = termIds;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TermsKey)) return false;
+            TermsKey other = (TermsKey) o;
+            return owner == other.owner && Arrays.equals(termIds, other.termIds);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * owner + Arrays.hashCode(termIds);
+        }
+    }
+
+    private static class Entry {
+        final Object key;
+        final PostingList posting;
+        final long weight;
+        long uses = 1;
+        long lastUse;
+
+        Entry(Object key, PostingList posting, long weight) {
+            this.key = key;
+            this.posting = posting;
+            this.weight = weight;
+        }
+    }
+
+    // Name in the counter report
+    private final String name;
+    private final long capacity;
+    // Long keys for postings, TermsKey for intersections
+    private final Map<Object, Entry> entries = new HashMap<Object, Entry>();
+    private final TreeSet<Entry> evictionOrder;
+    private long usedBytes = 0;
+    private long clock = 0;
+    private int numOwners = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public PostingCache(String name, long capacity, Policy policy) {
+        this.name = name;
+        this.capacity = capacity;
+        if (policy == Policy.LFU) {
+            evictionOrder = new TreeSet<Entry>(new Comparator<Entry>() {
+                @Override
+                public int compare(Entry e1, Entry e2) {
+                    if (e1.uses != e2.uses) return e1.uses < e2.uses ? -1 : 1;
+                    return Long.compare(e1.lastUse, e2.lastUse);
+                }
+            });
+        } else {
+            evictionOrder = new TreeSet<Entry>(new Comparator<Entry>() {
+                @Override
+                public int compare(Entry e1, Entry e2) {
+                    return Long.compare(e1.lastUse, e2.lastUse);
+                }
+            });
+        }
+    }
+
+    /* A new owner id for a segment, keeping its term ids apart from other segments' */
+    public synchronized int register() {
+        return numOwners++;
+    }
+
+    private static long key(int owner, int termId) {
+        return ((long) owner << 32) | (termId & 0xffffffffL);
+    }
+
+    /* Bytes held by the arrays behind p */
+    static long weight(PostingList p) {
+        long ints = p.getPostings().length;
+        if (p.hasPositions()) {
+            /* posEnds is as long as the doc id array */
+            ints += p.getPostings().length + p.getPositions().length;
+        }
+        if (p.hasFrequencies()) {
+            ints += p.getFrequencies().length;
+        }
+        return ints * BaseIndex.INT_BYTES;
+    }
+
+    /* The cached posting of termId in the owner's segment, or null on a miss */
+    public synchronized PostingList get(int owner, int termId) {
+        Entry entry = lookup(key(owner, termId));
+        return entry == null ? null : entry.posting;
+    }
+
+    /* Cache a posting that get just missed, evicting others to make room */
+    public synchronized void put(int owner, int termId, PostingList p) {
+        insert(key(owner, termId), p);
+    }
+
+    /*
+     * The cached intersection of the longest prefix of termIds, at least two
+     * terms long, or null on a miss. Only the prefix found counts as a hit.
+     */
+    public synchronized Prefix getPrefix(int owner, int[] termIds) {
+        for (int length = termIds.length; length >= 2; length--) {
+            Entry entry = entries.get(new TermsKey(owner, Arrays.copyOf(termIds, length)));
+            if (entry != null) {
+                touch(entry);
+                return new Prefix(length, entry.posting);
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /* Cache the intersection of the postings of the first length termIds */
+    public synchronized void putPrefix(int owner, int[] termIds, int length, PostingList p) {
+        /* Intersections are allocated for the longest possible result, trim them */
+        if (p.getPostings().length > p.size()) p = new PostingList(p.getTermId(), p.toArray());
+        insert(new TermsKey(owner, Arrays.copyOf(termIds, length)), p);
+    }
+
+    private Entry lookup(Object key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        touch(entry);
+        return entry;
+    }
+
+    private void touch(Entry entry) {
+        hits++;
+        evictionOrder.remove(entry);
+        entry.uses++;
+        entry.lastUse = ++clock;
+        evictionOrder.add(entry);
+    }
+
+    private void insert(Object key, PostingList p) {
+        long weight = weight(p);
+        if (weight > capacity || entries.containsKey(key)) return;
+        while (usedBytes + weight > capacity) {
+            Entry victim = evictionOrder.pollFirst();
+            entries.remove(victim.key);
+            usedBytes -= victim.weight;
+            evictions++;
+        }
+        Entry entry = new Entry(key, p, weight);
+        entry.lastUse = ++clock;
+        entries.put(key, entry);
+        evictionOrder.add(entry);
+        usedBytes += weight;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return String.format("%s: %d hits, %d misses (%.1f%% hit rate), %d evictions, %d entries in %d of %d bytes",
+                name, hits, misses, lookups == 0 ? 0.0 : 100.0 * hits / lookups, evictions, entries.size(), usedBytes, capacity);
+    }
+}
@@ -0,0 +1,20 @@
+package cs276.assignments;
+
+/*
+ * Forward-only cursor over the doc ids of one posting list. A fresh iterator
+ * sits before the first doc; advance lets implementations leap over postings
+ * they would otherwise decode one by one.
+ */
+public interface PostingIterator {
+
+    public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /* Current doc id, -1 before the first call to next or advance */
+    public int docId();
+
+    /* Move to the next doc id and return it, or NO_MORE_DOCS at the end */
+    public int next();
+
+    /* Move to the first doc id >= target and return it, never moving backwards */
+    public int advance(int target);
+}
@@ -1,89 +1,420 @@
 package cs276.assignments;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Arrays;
 
 public class PostingList {
 
+    private static final int DEFAULT_CAPACITY = 8;
+    /* Length ratio above which intersect gallops instead of walking both lists */
+    private static final int GALLOP_RATIO = 16;
+
     private int termId;
-    /* A list of docIDs (i.e. postings) */
-    private List<Integer> postings;
+    /* A growable array of docIDs (i.e. postings), only the first size are valid */
+    private int[] postings;
+    private int size;
+    /*
+     * Positions of a positional posting, null otherwise. The positions of
+     * doc i are positions[posEnds[i - 1], posEnds[i]), with posEnds[-1] = 0.
+     */
+    private int[] posEnds;
+    private int[] positions;
+    private int numPositions;
+    /* Term frequency in each doc of a frequency posting, null otherwise */
+    private int[] freqs;
 
-    public PostingList(int termId, List<Integer> list) {
+    public PostingList(int termId, int[] postings, int size) {
         this.termId = termId;
-        this.postings = list;
+        this.postings = postings;
+        this.size = size;
+    }
+
+    public PostingList(int termId, int[] postings, int size, int[] posEnds, int[] positions) {
+        this(termId, postings, size);
+        this.posEnds = posEnds;
+        this.positions = positions;
+        this.numPositions = size == 0 ? 0 : posEnds[size - 1];
+    }
+
+    public PostingList(int termId, int[] postings, int size, int[] freqs) {
+        this(termId, postings, size);
+        this.freqs = freqs;
+    }
+
+    public PostingList(int termId, int[] postings) {
+        this(termId, postings, postings.length);
     }
 
     public PostingList(int termId) {
-        this.termId = termId;
-        this.postings = new ArrayList<Integer>();
+        this(termId, new int[DEFAULT_CAPACITY], 0);
     }
 
     public int getTermId() {
         return this.termId;
     }
 
-    public List<Integer> getList() {
+    /* The backing array, entries at or after size() are garbage */
+    public int[] getPostings() {
         return this.postings;
     }
 
-    private static <X> X popNextOrNull(Iterator<X> p) {
-        return p.hasNext() ? p.next() : null;
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public int get(int index) {
+        return this.postings[index];
+    }
+
+    public int getLast() {
+        return this.postings[this.size - 1];
+    }
+
+    public void add(int docId) {
+        if (this.size == this.postings.length) {
+            this.postings = Arrays.copyOf(this.postings, Math.max(DEFAULT_CAPACITY, this.size * 2));
+        }
+        this.postings[this.size++] = docId;
+    }
+
+    /* Record that the term occurs at position in docId, the last doc or a new one */
+    public void addPosition(int docId, int position) {
+        if (this.posEnds == null) {
+            this.posEnds = new int[this.postings.length];
+            this.positions = new int[DEFAULT_CAPACITY];
+        }
+        if (this.size == 0 || getLast() != docId) {
+            add(docId);
+            if (this.posEnds.length < this.postings.length) {
+                this.posEnds = Arrays.copyOf(this.posEnds, this.postings.length);
+            }
+        }
+        if (this.numPositions == this.positions.length) {
+            this.positions = Arrays.copyOf(this.positions, this.numPositions * 2);
+        }
+        this.positions[this.numPositions++] = position;
+        this.posEnds[this.size - 1] = this.numPositions;
+    }
+
+    /* Count one more occurrence of the term in docId, the last doc or a new one */
+    public void addOccurrence(int docId) {
+        if (this.freqs == null) {
+            this.freqs = new int[this.postings.length];
+        }
+        if (this.size > 0 && getLast() == docId) {
+            this.freqs[this.size - 1]++;
+            return;
+        }
+        add(docId);
+        if (this.freqs.length < this.postings.length) {
+            this.freqs = Arrays.copyOf(this.freqs, this.postings.length);
+        }
+        this.freqs[this.size - 1] = 1;
+    }
+
+    public boolean hasFrequencies() {
+        return this.freqs != null;
+    }
+
+    /* Backing array of the term frequencies, entries at or after size() are garbage */
+    public int[] getFrequencies() {
+        return this.freqs;
+    }
+
+    /*
+     * Term frequency in the doc at index, counted from the positions of a
+     * positional posting and 1 when the posting has neither
+     */
+    public int freq(int index) {
+        if (this.freqs != null) return this.freqs[index];
+        if (this.posEnds != null) return positionEnd(index) - positionStart(index);
+        return 1;
+    }
+
+    public boolean hasPositions() {
+        return this.posEnds != null;
+    }
+
+    /* Backing arrays of the positions, see posEnds above */
+    public int[] getPositions() {
+        return this.positions;
+    }
+
+    public int positionStart(int index) {
+        return index == 0 ? 0 : this.posEnds[index - 1];
+    }
+
+    public int positionEnd(int index) {
+        return this.posEnds[index];
+    }
+
+    /* The same postings and positions under another term id */
+    public PostingList withTermId(int termId) {
+        PostingList p = new PostingList(termId, this.postings, this.size);
+        p.posEnds = this.posEnds;
+        p.positions = this.positions;
+        p.numPositions = this.numPositions;
+        p.freqs = this.freqs;
+        return p;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(this.postings, this.size);
+    }
+
+    public PostingIterator iterator() {
+        return new ArrayPostingIterator(this.postings, this.size);
+    }
+
+    /* Iterator over the doc ids and the term frequencies, see freq */
+    public FrequencyPostingIterator frequencyIterator() {
+        return new ArrayFrequencyIterator(this);
+    }
+
+    /* Iterator over the doc ids and positions of a positional posting */
+    public PositionalPostingIterator positionalIterator() {
+        return new ArrayPositionalIterator(this);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
     }
 
     public static PostingList merge(PostingList p1, PostingList p2) {
         //Check that both lists aren't empty
-        if (p1.getList().isEmpty()) return p2;
-        if (p2.getList().isEmpty()) return p1;
+        if (p1.isEmpty()) return p2;
+        if (p2.isEmpty()) return p1;
+        if (p1.hasPositions()) return mergePositional(p1, p2);
+        if (p1.hasFrequencies()) return mergeFrequencies(p1, p2);
         //Build new posting list
-        PostingList p = new PostingList(p1.getTermId());
-        Iterator<Integer> iter1 = p1.getList().iterator();
-        Iterator<Integer> iter2 = p2.getList().iterator();
-        Integer docId1 = popNextOrNull(iter1);
-        Integer docId2 = popNextOrNull(iter2);
-        while (docId1 != null && docId2 != null) {
-            if (docId1.equals(docId2)) {
-                p.getList().add(docId1);
-                docId1 = popNextOrNull(iter1);
-                docId2 = popNextOrNull(iter2);
-            } else if (docId1 < docId2) {
-                p.getList().add(docId1);
-                docId1 = popNextOrNull(iter1);
+        int[] docIds1 = p1.getPostings(), docIds2 = p2.getPostings();
+        int size1 = p1.size(), size2 = p2.size();
+        int[] res = new int[size1 + size2];
+        int i = 0, j = 0, k = 0;
+        while (i < size1 && j < size2) {
+            if (docIds1[i] == docIds2[j]) {
+                res[k++] = docIds1[i++];
+                j++;
+            } else if (docIds1[i] < docIds2[j]) {
+                res[k++] = docIds1[i++];
             } else {
-                p.getList().add(docId2);
-                docId2 = popNextOrNull(iter2);
+                res[k++] = docIds2[j++];
             }
         }
-        while (docId1 != null) {
-            p.getList().add(docId1);
-            docId1 = popNextOrNull(iter1);
+        while (i < size1) {
+            res[k++] = docIds1[i++];
         }
-        while (docId2 != null) {
-            p.getList().add(docId2);
-            docId2 = popNextOrNull(iter2);
+        while (j < size2) {
+            res[k++] = docIds2[j++];
         }
-        return p;
+        return new PostingList(p1.getTermId(), res, k);
     }
 
-    public static List<Integer> intersect(List<Integer> list, PostingList p) {
-        List<Integer> res = new ArrayList<Integer>();
-        if (p.getList().isEmpty()) return res;
-        Iterator<Integer> iter1 = list.iterator();
-        Iterator<Integer> iter2 = p.getList().iterator();
-        Integer docId1 = popNextOrNull(iter1);
-        Integer docId2 = popNextOrNull(iter2);
-        while (docId1 != null && docId2 != null) {
-            if (docId1 == docId2) {
-                res.add(docId1);
-                docId1 = popNextOrNull(iter1);
-                docId2 = popNextOrNull(iter2);
-            } else if (docId1 < docId2) {
-                docId1 = popNextOrNull(iter1);
+    /* Merge two positional postings, keeping p1's positions for a doc on both */
+    private static PostingList mergePositional(PostingList p1, PostingList p2) {
+        PostingList res = new PostingList(p1.getTermId(), new int[p1.size() + p2.size()], 0);
+        int i = 0, j = 0;
+        while (i < p1.size() || j < p2.size()) {
+            if (j == p2.size() || (i < p1.size() && p1.get(i) <= p2.get(j))) {
+                if (j < p2.size() && p1.get(i) == p2.get(j)) j++;
+                res.addPositions(p1, i++);
             } else {
-                docId2 = popNextOrNull(iter2);
+                res.addPositions(p2, j++);
             }
         }
         return res;
     }
+
+    /* Merge two frequency postings, keeping p1's frequency for a doc on both */
+    private static PostingList mergeFrequencies(PostingList p1, PostingList p2) {
+        int[] res = new int[p1.size() + p2.size()];
+        int[] freqs = new int[res.length];
+        int i = 0, j = 0, k = 0;
+        while (i < p1.size() || j < p2.size()) {
+            if (j == p2.size() || (i < p1.size() && p1.get(i) <= p2.get(j))) {
+                if (j < p2.size() && p1.get(i) == p2.get(j)) j++;
+                freqs[k] = p1.freqs[i];
+                res[k++] = p1.get(i++);
+            } else {
+                freqs[k] = p2.freqs[j];
+                res[k++] = p2.get(j++);
+            }
+        }
+        return new PostingList(p1.getTermId(), res, k, freqs);
+    }
+
+    private void addPositions(PostingList p, int index) {
+        for (int k = p.positionStart(index); k < p.positionEnd(index); k++) {
+            addPosition(p.get(index), p.positions[k]);
+        }
+    }
+
+    /*
+     * First index at or after from whose value is >= target, or end if there
+     * is none. Gallops forward from from and then binary searches, so it
+     * costs log of the distance moved rather than of the array length.
+     */
+    public static int gallop(int[] values, int from, int end, int target) {
+        if (from >= end || values[from] >= target) return from;
+        int lo = from;
+        int step = 1;
+        int hi = lo + step;
+        while (hi < end && values[hi] < target) {
+            lo = hi;
+            step <<= 1;
+            hi = lo + step;
+        }
+        /* values[lo] < target <= values[hi] */
+        hi = Math.min(hi, end);
+        while (lo + 1 < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < target) lo = mid;
+            else hi = mid;
+        }
+        return hi;
+    }
+
+    /*
+     * Intersect a (short) list with an iterator over a (long) posting, letting
+     * the iterator leap to each candidate instead of stepping through it
+     */
+    public static PostingList intersect(PostingList list, PostingIterator iter) {
+        int[] docIds = list.getPostings();
+        int size = list.size();
+        int[] res = new int[size];
+        int k = 0;
+        for (int i = 0; i < size; i++) {
+            int docId = iter.advance(docIds[i]);
+            if (docId == PostingIterator.NO_MORE_DOCS) break;
+            if (docId == docIds[i]) res[k++] = docId;
+        }
+        return new PostingList(list.getTermId(), res, k);
+    }
+
+    /*
+     * Intersect the rarest list with iterators over all the other lists at
+     * once. Every candidate from the rarest list is checked against each
+     * iterator in turn (most selective first); when one overshoots, the
+     * rarest list gallops straight to the doc it reached. The work follows
+     * the length of the rarest list rather than of the longest one.
+     */
+    public static PostingList intersect(PostingList rarest, PostingIterator[] others) {
+        int[] res = new int[rarest.size()];
+        int k = 0;
+        PostingIterator lead = rarest.iterator();
+        int candidate = lead.next();
+        candidates:
+        while (candidate != PostingIterator.NO_MORE_DOCS) {
+            for (PostingIterator iter : others) {
+                int docId = iter.advance(candidate);
+                if (docId != candidate) {
+                    if (docId == PostingIterator.NO_MORE_DOCS) break candidates;
+                    candidate = lead.advance(docId);
+                    continue candidates;
+                }
+            }
+            res[k++] = candidate;
+            candidate = lead.next();
+        }
+        return new PostingList(rarest.getTermId(), res, k);
+    }
+
+    /*
+     * Linear merge for lists of similar length; once one is GALLOP_RATIO
+     * times longer than the other, gallop through the longer one instead
+     */
+    public static PostingList intersect(PostingList p1, PostingList p2) {
+        if (p2.size() / GALLOP_RATIO > p1.size()) {
+            return intersect(p1, p2.iterator());
+        }
+        if (p1.size() / GALLOP_RATIO > p2.size()) {
+            PostingList res = intersect(p2, p1.iterator());
+            return new PostingList(p1.getTermId(), res.getPostings(), res.size());
+        }
+        int[] docIds1 = p1.getPostings(), docIds2 = p2.getPostings();
+        int size1 = p1.size(), size2 = p2.size();
+        int[] res = new int[Math.min(size1, size2)];
+        int i = 0, j = 0, k = 0;
+        while (i < size1 && j < size2) {
+            if (docIds1[i] == docIds2[j]) {
+                res[k++] = docIds1[i++];
+                j++;
+            } else if (docIds1[i] < docIds2[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return new PostingList(p1.getTermId(), res, k);
+    }
+
+    /* Iterator over a decoded list, advance gallops */
+    private static class ArrayPostingIterator implements PostingIterator {
+        private final int[] docIds;
+        private final int size;
+        int index = -1;
+
+        ArrayPostingIterator(int[] docIds, int size) {
+            this.docIds = docIds;
+            this.size = size;
+        }
+
+        @Override
+        public int docId() {
+            if (index < 0) return -1;
+            return index < size ? docIds[index] : NO_MORE_DOCS;
+        }
+
+        @Override
+        public int next() {
+            if (index < size) index++;
+            return docId();
+        }
+
+        @Override
+        public int advance(int target) {
+            index = gallop(docIds, Math.max(index, 0), size, target);
+            return docId();
+        }
+    }
+
+    private static class ArrayFrequencyIterator extends ArrayPostingIterator implements FrequencyPostingIterator {
+        final PostingList list;
+
+        ArrayFrequencyIterator(PostingList list) {
+            super(list.postings, list.size);
+            this.list = list;
+        }
+
+        @Override
+        public int freq() {
+            return list.freq(index);
+        }
+    }
+
+    /* Iterator over a decoded positional list, the positions are the list's own arrays */
+    private static class ArrayPositionalIterator extends ArrayFrequencyIterator implements PositionalPostingIterator {
+        ArrayPositionalIterator(PostingList list) {
+            super(list);
+        }
+
+        @Override
+        public int[] positions() {
+            return list.positions;
+        }
+
+        @Override
+        public int positionStart() {
+            return list.positionStart(index);
+        }
+
+        @Override
+        public int positionEnd() {
+            return list.positionEnd(index);
+        }
+    }
 }
@@ -1,57 +1,256 @@
 package cs276.assignments;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.RandomAccessFile;
-import java.nio.channels.FileChannel;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class Query {
 
-    // Term id -> position in index file
-    private static Map<Integer, Long> posDict = new TreeMap<Integer, Long>();
-    // Term id -> document frequency
-    private static Map<Integer, Integer> freqDict = new TreeMap<Integer, Integer>();
-    // Doc id -> doc name dictionary
-    private static Map<Integer, String> docDict = new TreeMap<Integer, String>();
-    // Term -> term id dictionary
-    private static Map<String, Integer> termDict = new TreeMap<String, Integer>();
-    // Index
-    private static BaseIndex index = null;
+    // Segments of the index, oldest first; a plain index is one segment
+    private static List<IndexSegment> segments = null;
+    // Decoded postings shared by all segments, null unless -cache is given
+    private static PostingCache cache = null;
+    // Intersections of conjunction prefixes, owners are segment numbers; null unless -resultcache is given
+    private static PostingCache resultCache = null;
+    // Number of ranked results per query, 0 for unranked boolean retrieval
+    private static int rankK = 0;
+    private static RankedQuery rankedQuery = null;
 
     /*
-     * Write a posting list with a given termID from the file You should seek to
-     * the file position of this specific posting list and read it back.
+     * Answer a query that uses AND, OR, NOT, parentheses, phrases or /k,
+     * streaming the matching doc names to out as the iterator trees of the
+     * segments produce them
      */
-    private static PostingList readPosting(FileChannel fc, int termId) throws IOException {
-        if (!posDict.containsKey(termId)) return null;
-        return index.readPosting(fc.position(posDict.get(termId)));
+    private static void answerBoolean(String line, PrintWriter out) throws IOException {
+        List<PostingIterator> iters = new ArrayList<PostingIterator>(segments.size());
+        try {
+            BooleanQuery query = BooleanQuery.parse(line);
+            for (IndexSegment segment : segments) {
+                iters.add(query.iterator(segment.postings()));
+            }
+        } catch (IllegalArgumentException e) {
+            out.println("invalid query: " + e.getMessage());
+            return;
+        }
+        boolean found = false;
+        for (int i = 0; i < iters.size(); i++) {
+            PostingIterator iter = iters.get(i);
+            while (iter.next() != PostingIterator.NO_MORE_DOCS) {
+                out.println(segments.get(i).docName(iter.docId()));
+                found = true;
+            }
+        }
+        if (!found) out.println("no results found");
+    }
+
+    /*
+     * Answer a conjunction within one segment, writing the matching doc names
+     * to out. Returns false if some term is not in the segment.
+     */
+    private static boolean answer(final IndexSegment segment, int segmentNo, String line, PrintWriter out) throws IOException {
+        String[] tokens = line.split("\\s+");
+        Set<Integer> termIds = new HashSet<Integer>();
+        for (String token : tokens) {
+            Integer termId = segment.lookupTermId(token);
+            if (termId == null) return false;
+            termIds.add(termId);
+        }
+        List<Integer> termIdsSortedByFreq = new ArrayList<Integer>(termIds);
+        /* Ties go by term id, so a set of terms always comes out in one order */
+        Collections.sort(termIdsSortedByFreq, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer termId1, Integer termId2) {
+                int cmp = segment.docFreq(termId1) - segment.docFreq(termId2);
+                return cmp != 0 ? cmp : termId1 - termId2;
+            }
+        });
+        PostingList res;
+        if (resultCache != null && termIdsSortedByFreq.size() > 1) {
+            res = intersectCached(segment, segmentNo, termIdsSortedByFreq);
+        } else {
+            /* Drive the intersection from the rarest term, leaping through the rest */
+            res = segment.readPosting(termIdsSortedByFreq.get(0));
+            PostingIterator[] others = new PostingIterator[termIdsSortedByFreq.size() - 1];
+            for (int i = 0; i < others.length; i++) {
+                others[i] = segment.openPosting(termIdsSortedByFreq.get(i + 1));
+            }
+            res = PostingList.intersect(res, others);
+        }
+        for (int i = 0; i < res.size(); i++) {
+            out.println(segment.docName(res.get(i)));
+        }
+        return true;
+    }
+
+    /*
+     * Intersect the terms one at a time in the given order, starting from the
+     * longest prefix found in resultCache and caching each longer prefix on
+     * the way, so that "a b c" and "a b d" both start from "a b"
+     */
+    private static PostingList intersectCached(IndexSegment segment, int segmentNo, List<Integer> sortedTermIds) throws IOException {
+        int[] order = new int[sortedTermIds.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = sortedTermIds.get(i);
+        }
+        PostingList res;
+        int length;
+        PostingCache.Prefix prefix = resultCache.getPrefix(segmentNo, order);
+        if (prefix != null) {
+            res = prefix.posting;
+            length = prefix.length;
+        } else {
+            res = segment.readPosting(order[0]);
+            length = 1;
+        }
+        for (; length < order.length && !res.isEmpty(); length++) {
+            res = PostingList.intersect(res, segment.openPosting(order[length]));
+            resultCache.putPrefix(segmentNo, order, length + 1, res);
+        }
+        return res;
+    }
+
+    /* Write the rankK best docs for the terms of line with their BM25 scores */
+    private static void answerRanked(String line, PrintWriter out) throws IOException {
+        List<RankedQuery.ScoredDoc> docs = rankedQuery.topK(line, rankK);
+        for (RankedQuery.ScoredDoc doc : docs) {
+            out.println(doc.segment.docName(doc.docId) + "\t" + String.format("%.4f", doc.score));
+        }
+        if (docs.isEmpty()) out.println("no results found");
+    }
+
+    /*
+     * Answer one query, writing the matching doc names (or "no results
+     * found") to out. A plain list of terms is a conjunction, anything with
+     * operators goes to answerBoolean. Only reads the loaded dictionaries, so
+     * it can run on several threads at once.
+     */
+    private static void answer(String line, PrintWriter out) throws IOException {
+        if (rankK > 0) {
+            answerRanked(line, out);
+            return;
+        }
+        if (BooleanQuery.hasOperators(line)) {
+            answerBoolean(line, out);
+            return;
+        }
+        boolean found = false;
+        for (int i = 0; i < segments.size(); i++) {
+            found |= answer(segments.get(i), i, line, out);
+        }
+        if (!found) out.println("no results found");
+    }
+
+    /*
+     * Serve queries on a loopback port until the process is killed. A client
+     * sends one query per line and gets back the lines answer prints for it,
+     * followed by an empty line. Connections are handled concurrently on a
+     * pool of numThreads threads that share the loaded dictionaries and index.
+     */
+    private static void serve(int port, int numThreads) throws IOException {
+        ServerSocket server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        System.err.println("Serving queries on " + server.getLocalSocketAddress());
+        try {
+            while (true) {
+                final Socket socket = server.accept();
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+                            String line;
+                            while ((line = in.readLine()) != null) {
+                                answer(line, out);
+                                out.println();
+                                out.flush();
+                            }
+                        } catch (IOException e) {
+                            System.err.println("Query connection failure: " + e.getMessage());
+                        } finally {
+                            try {
+                                socket.close();
+                            } catch (IOException e) {
+                                // nothing left to do with this connection
+                            }
+                        }
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            server.close();
+        }
+    }
+
+    private static void printCacheCounters() {
+        if (cache != null) System.err.println(cache);
+        if (resultCache != null) System.err.println(resultCache);
     }
 
     public static void main(String[] args) throws IOException {
         /* Parse command line */
-        if (args.length != 2) {
-            System.err.println("Usage: java Query [Basic|VB|Gamma] index_dir");
+        if (args.length < 2) {
+            System.err.println("Usage: java Query [Basic|VB|Gamma|PFor|GroupVarint] index_dir [-mmap] [-cache mb] [-resultcache mb] [-cachepolicy lru|lfu] [-rank k] [-server port [-threads n]]");
             return;
         }
 
+        /* Optional flags */
+        boolean mmap = false;
+        int port = -1;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        long cacheBytes = 0;
+        long resultCacheBytes = 0;
+        PostingCache.Policy cachePolicy = PostingCache.Policy.LRU;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("-mmap")) {
+                mmap = true;
+            } else if (args[i].equals("-server") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-threads") && i + 1 < args.length) {
+                numThreads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-cache") && i + 1 < args.length) {
+                cacheBytes = Long.parseLong(args[++i]) << 20;
+            } else if (args[i].equals("-rank") && i + 1 < args.length) {
+                rankK = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-resultcache") && i + 1 < args.length) {
+                resultCacheBytes = Long.parseLong(args[++i]) << 20;
+            } else if (args[i].equals("-cachepolicy") && i + 1 < args.length) {
+                try {
+                    cachePolicy = PostingCache.Policy.valueOf(args[++i].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Cache policy must be \"lru\" or \"lfu\"");
+                    return;
+                }
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+
         /* Get index */
         String className = "cs276.assignments." + args[0] + "Index";
+        BaseIndex index;
         try {
             Class<?> indexClass = Class.forName(className);
             index = (BaseIndex) indexClass.newInstance();
         } catch (Exception e) {
-            System.err.println("Index method must be \"Basic\", \"VB\", or \"Gamma\"");
+            System.err.println("Index method must be \"Basic\", \"VB\", \"Gamma\", \"PFor\", or \"GroupVarint\"");
             throw new RuntimeException(e);
         }
 
@@ -63,75 +262,57 @@ public class Query {
             return;
         }
 
-        /* Index file */
-        RandomAccessFile indexFile = new RandomAccessFile(new File(input, "corpus.index"), "r");
-        FileChannel fc = indexFile.getChannel();
-
-        String line = null;
-        /* Term dictionary */
-        BufferedReader termReader = new BufferedReader(new FileReader(new File(input, "term.dict")));
-        while ((line = termReader.readLine()) != null) {
-            String[] tokens = line.split("\t");
-            termDict.put(tokens[0], Integer.parseInt(tokens[1]));
+        /* Open the segments listed in its manifest, or the whole directory as one */
+        if (SegmentManifest.exists(inputdir)) {
+            segments = SegmentManifest.open(inputdir, index, mmap);
+        } else {
+            segments = Collections.singletonList(IndexSegment.open(inputdir, index, mmap));
         }
-        termReader.close();
-
-        /* Doc dictionary */
-        BufferedReader docReader = new BufferedReader(new FileReader(new File(input, "doc.dict")));
-        while ((line = docReader.readLine()) != null) {
-            String[] tokens = line.split("\t");
-            docDict.put(Integer.parseInt(tokens[1]), tokens[0]);
+        if (cacheBytes > 0) {
+            cache = new PostingCache("posting cache", cacheBytes, cachePolicy);
+            for (IndexSegment segment : segments) {
+                segment.setCache(cache);
+            }
         }
-        docReader.close();
-
-        /* Posting dictionary */
-        BufferedReader postReader = new BufferedReader(new FileReader(new File(input, "posting.dict")));
-        while ((line = postReader.readLine()) != null) {
-            String[] tokens = line.split("\t");
-            posDict.put(Integer.parseInt(tokens[0]), Long.parseLong(tokens[1]));
-            freqDict.put(Integer.parseInt(tokens[0]), Integer.parseInt(tokens[2]));
+        if (rankK > 0) {
+            for (IndexSegment segment : segments) {
+                if (!segment.hasDocLengths()) {
+                    System.err.println("No doc lengths to rank by, rebuild the index: " + segment.getDir());
+                    return;
+                }
+            }
+            rankedQuery = new RankedQuery(segments);
+        }
+        if (resultCacheBytes > 0) {
+            resultCache = new PostingCache("result cache", resultCacheBytes, cachePolicy);
         }
-        postReader.close();
 
         /* Processing queries */
+        if (port >= 0) {
+            /* The server only stops when killed, report the counters then */
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    printCacheCounters();
+                }
+            });
+            serve(port, numThreads);
+            return;
+        }
+
         BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
 
         /* For each query */
+        String line;
         while ((line = br.readLine()) != null) {
-
-            boolean notFoundFlag = false;
-
-            String[] tokens = line.split("\\s+");
-            Set<Integer> termIds = new HashSet<Integer>();
-            for (String token : tokens) {
-                if (!termDict.containsKey(token)) {
-                    notFoundFlag = true;
-                    break;
-                }
-                termIds.add(termDict.get(token));
-            }
-            List<Integer> res = null;
-            if (!notFoundFlag) {
-                List<Integer> termIdsSortedByFreq = new ArrayList<Integer>(termIds);
-                Collections.sort(termIdsSortedByFreq, new Comparator<Integer>() {
-                    @Override
-                    public int compare(Integer termId1, Integer termId2) {
-                        return freqDict.get(termId1) - freqDict.get(termId2);
-                    }
-                });
-                for (int termId : termIdsSortedByFreq) {
-                    res = res == null ? readPosting(fc, termId).getList() : PostingList.intersect(res, readPosting(fc, termId));
-                }
-            }
-            if (res == null)
-                System.out.println("no results found");
-            else {
-                for (int docId : res) {
-                    System.out.println(docDict.get(docId));
-                }
-            }
+            answer(line, out);
         }
+        out.flush();
         br.close();
-        indexFile.close();
+        printCacheCounters();
+        for (IndexSegment segment : segments) {
+            segment.close();
+        }
     }
 }
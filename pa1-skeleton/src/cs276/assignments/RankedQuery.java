@@ -0,0 +1,187 @@
+package cs276.assignments;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/*
+ * Top k ranked retrieval: a query is a bag of terms and docs are scored with
+ * BM25, using collection statistics summed over all segments. The scores
+ * come from term frequencies (an index built with -tf or -positional; other
+ * indexes count every term once) and the doc lengths in doc.len.
+ *
+ * Docs are found with WAND. Every term has an upper bound on what it can add
+ * to a doc's score, from its largest frequency, which the index stores with
+ * the posting, and the shortest doc in the segment. The cursors are kept sorted by doc id, and the pivot is the first
+ * cursor at which the bounds so far add up to more than the k-th best score
+ * found yet: no doc before the pivot's doc can make the top k, so the
+ * cursors before it leap straight to it without scoring anything on the
+ * way. Only docs that might still enter the top k are scored, and fewer of
+ * them as the threshold rises. The cursors are posting iterators, so from a
+ * memory map the lists are decoded only as far as the cursors get.
+ */
+public class RankedQuery {
+
+    // BM25 term frequency saturation and length normalization
+    static final double K1 = 1.2;
+    static final double B = 0.75;
+
+    public static class ScoredDoc {
+        public final IndexSegment segment;
+        public final int docId;
+        public final double score;
+
+        ScoredDoc(IndexSegment segment, int docId, double score) {
+            this.segment = segment;
+            this.docId = docId;
+            this.score = score;
+        }
+    }
+
+    /* Best first, doc id breaking ties */
+    private static final Comparator<ScoredDoc> BY_SCORE = new Comparator<ScoredDoc>() {
+        @Override
+        public int compare(ScoredDoc d1, ScoredDoc d2) {
+            int cmp = Double.compare(d2.score, d1.score);
+            return cmp != 0 ? cmp : Integer.compare(d1.docId, d2.docId);
+        }
+    };
+
+    /* Position in the posting of one query term, on its first doc to begin with */
+    private static class Cursor {
+        final FrequencyPostingIterator iter;
+        final double idf;
+        final double upperBound;
+
+        Cursor(FrequencyPostingIterator iter, double idf, double upperBound) {
+            this.iter = iter;
+            this.idf = idf;
+            this.upperBound = upperBound;
+            iter.next();
+        }
+
+        int docId() {
+            return iter.docId();
+        }
+    }
+
+    private static final Comparator<Cursor> BY_DOC_ID = new Comparator<Cursor>() {
+        @Override
+        public int compare(Cursor c1, Cursor c2) {
+            return Integer.compare(c1.docId(), c2.docId());
+        }
+    };
+
+    private final List<IndexSegment> segments;
+    private final double avgDocLength;
+    private final long numDocs;
+
+    /* Every segment must have doc lengths */
+    public RankedQuery(List<IndexSegment> segments) {
+        this.segments = segments;
+        long numDocs = 0;
+        long totalLength = 0;
+        for (IndexSegment segment : segments) {
+            numDocs += segment.numDocs();
+            totalLength += segment.totalDocLength();
+        }
+        this.numDocs = numDocs;
+        this.avgDocLength = numDocs == 0 ? 1 : Math.max(1.0, (double) totalLength / numDocs);
+    }
+
+    /* Term weight of BM25, never negative */
+    private double idf(int docFreq) {
+        return Math.log(1 + (numDocs - docFreq + 0.5) / (docFreq + 0.5));
+    }
+
+    private double termScore(double idf, int tf, int docLength) {
+        return idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * docLength / avgDocLength));
+    }
+
+    /* The k best docs for the terms of line, best first */
+    public List<ScoredDoc> topK(String line, int k) throws IOException {
+        if (k <= 0) return new ArrayList<ScoredDoc>();
+        Set<String> terms = new LinkedHashSet<String>(Arrays.asList(line.trim().split("\\s+")));
+        /* Worst of the best k at the head */
+        PriorityQueue<ScoredDoc> top = new PriorityQueue<ScoredDoc>(k, Collections.reverseOrder(BY_SCORE));
+
+        /* Collection statistics, so scores compare across segments */
+        List<String> indexedTerms = new ArrayList<String>();
+        List<Double> idfs = new ArrayList<Double>();
+        for (String term : terms) {
+            int docFreq = 0;
+            for (IndexSegment segment : segments) {
+                Integer termId = segment.lookupTermId(term);
+                if (termId != null) docFreq += segment.docFreq(termId);
+            }
+            if (docFreq > 0) {
+                indexedTerms.add(term);
+                idfs.add(idf(docFreq));
+            }
+        }
+
+        /* The heap and its threshold carry over from one segment to the next */
+        for (IndexSegment segment : segments) {
+            List<Cursor> cursors = new ArrayList<Cursor>();
+            for (int i = 0; i < indexedTerms.size(); i++) {
+                Integer termId = segment.lookupTermId(indexedTerms.get(i));
+                if (termId == null) continue;
+                double idf = idfs.get(i);
+                double upperBound = termScore(idf, segment.maxFreq(termId), segment.minDocLength());
+                cursors.add(new Cursor(segment.openFrequencies(termId), idf, upperBound));
+            }
+            wand(segment, cursors.toArray(new Cursor[cursors.size()]), k, top);
+        }
+
+        List<ScoredDoc> res = new ArrayList<ScoredDoc>(top);
+        Collections.sort(res, BY_SCORE);
+        return res;
+    }
+
+    private void wand(IndexSegment segment, Cursor[] cursors, int k, PriorityQueue<ScoredDoc> top) {
+        while (true) {
+            Arrays.sort(cursors, BY_DOC_ID);
+            double threshold = top.size() < k ? 0 : top.peek().score;
+
+            /* First cursor where the bounds so far could beat the threshold */
+            int pivot = -1;
+            double bound = 0;
+            for (int i = 0; i < cursors.length && cursors[i].docId() != PostingIterator.NO_MORE_DOCS; i++) {
+                bound += cursors[i].upperBound;
+                if (bound > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) return;
+            int pivotDocId = cursors[pivot].docId();
+
+            if (cursors[0].docId() == pivotDocId) {
+                /* Every cursor up to the pivot is on its doc: score it */
+                int docLength = segment.docLength(pivotDocId);
+                double score = 0;
+                for (Cursor cursor : cursors) {
+                    if (cursor.docId() != pivotDocId) break;
+                    score += termScore(cursor.idf, cursor.iter.freq(), docLength);
+                    cursor.iter.next();
+                }
+                if (top.size() < k) {
+                    top.add(new ScoredDoc(segment, pivotDocId, score));
+                } else if (score > threshold) {
+                    top.poll();
+                    top.add(new ScoredDoc(segment, pivotDocId, score));
+                }
+            } else {
+                for (int i = 0; i < pivot; i++) {
+                    cursors[i].iter.advance(pivotDocId);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package cs276.assignments;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * The list of live segments of an incremental index, kept in the file
+ * "segments" of the index directory. One line per segment, oldest first:
+ *   name \t firstDocId \t lastDocId \t block,block,...
+ * where name is the segment's subdirectory and the blocks are the data
+ * directories inverted into it. Segments are immutable once listed; adding
+ * or merging segments writes a new manifest and renames it over the old
+ * one, so a reader always sees a complete set.
+ *
+ * An Index run adds segments while a SegmentMerger may be merging them, so
+ * both read, change and write the manifest while holding lock(dir).
+ */
+public class SegmentManifest {
+
+    static final String FILE_NAME = "segments";
+    private static final String LOCK_FILE_NAME = "segments.lock";
+    private static final String SEGMENT_PREFIX = "seg";
+    private static final int MAX_OPEN_ATTEMPTS = 3;
+
+    /* One line of the manifest */
+    public static class Entry {
+        final String name;
+        final int firstDocId;
+        final int lastDocId;
+        final List<String> blocks;
+
+        Entry(String name, int firstDocId, int lastDocId, List<String> blocks) {
+            this.name = name;
+            this.firstDocId = firstDocId;
+            this.lastDocId = lastDocId;
+            this.blocks = blocks;
+        }
+
+        int numDocs() {
+            return lastDocId - firstDocId + 1;
+        }
+    }
+
+    public static boolean exists(File dir) {
+        return new File(dir, FILE_NAME).exists();
+    }
+
+    /* The segments listed in dir, none if it has no manifest yet */
+    public static List<Entry> read(File dir) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        File file = new File(dir, FILE_NAME);
+        if (!file.exists()) return entries;
+
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            String[] tokens = line.split("\t", -1);
+            List<String> blocks = tokens[3].isEmpty() ? new ArrayList<String>()
+                    : new ArrayList<String>(Arrays.asList(tokens[3].split(",")));
+            entries.add(new Entry(tokens[0], Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]), blocks));
+        }
+        reader.close();
+        return entries;
+    }
+
+    /* Replace the manifest in dir by entries in one atomic rename */
+    public static void write(File dir, List<Entry> entries) throws IOException {
+        File tmp = new File(dir, FILE_NAME + ".tmp");
+        BufferedWriter writer = new BufferedWriter(new FileWriter(tmp));
+        for (Entry entry : entries) {
+            StringBuilder blocks = new StringBuilder();
+            for (String block : entry.blocks) {
+                if (blocks.length() > 0) blocks.append(',');
+                blocks.append(block);
+            }
+            writer.write(entry.name + "\t" + entry.firstDocId + "\t" + entry.lastDocId + "\t" + blocks + "\n");
+        }
+        writer.close();
+        Files.move(tmp.toPath(), new File(dir, FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * Lock the manifest of dir against other processes, released by closing
+     * the lock's channel. Keep it only for reading and rewriting the
+     * manifest, never while inverting or merging.
+     */
+    public static FileLock lock(File dir) throws IOException {
+        FileChannel channel = new RandomAccessFile(new File(dir, LOCK_FILE_NAME), "rw").getChannel();
+        try {
+            return channel.lock();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /*
+     * Create a segment directory whose name is neither listed nor taken on
+     * disk, by another writer or an interrupted run, and return the name
+     */
+    public static String newSegmentDir(File dir, List<Entry> entries) throws IOException {
+        int next = 0;
+        for (Entry entry : entries) {
+            next = Math.max(next, Integer.parseInt(entry.name.substring(SEGMENT_PREFIX.length())) + 1);
+        }
+        while (!new File(dir, SEGMENT_PREFIX + next).mkdir()) {
+            if (!new File(dir, SEGMENT_PREFIX + next).exists()) {
+                throw new IOException("Create segment directory failure: " + new File(dir, SEGMENT_PREFIX + next));
+            }
+            next++;
+        }
+        return SEGMENT_PREFIX + next;
+    }
+
+    /*
+     * Open every listed segment for reading, oldest first. A merge can delete
+     * listed segments between reading the manifest and opening them, in which
+     * case the new manifest is read and opened instead.
+     */
+    public static List<IndexSegment> open(File dir, BaseIndex codec, boolean mmap) throws IOException {
+        for (int attempt = 1;; attempt++) {
+            List<IndexSegment> segments = new ArrayList<IndexSegment>();
+            try {
+                for (Entry entry : read(dir)) {
+                    segments.add(IndexSegment.open(new File(dir, entry.name), codec, mmap));
+                }
+                return segments;
+            } catch (FileNotFoundException e) {
+                for (IndexSegment segment : segments) {
+                    segment.close();
+                }
+                if (attempt == MAX_OPEN_ATTEMPTS) throw e;
+            }
+        }
+    }
+}
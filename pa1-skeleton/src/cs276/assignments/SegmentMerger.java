@@ -0,0 +1,282 @@
+package cs276.assignments;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import cs276.util.Pair;
+
+/*
+ * Log structured merge policy for the segments of an incremental index. A
+ * segment of n docs sits on level floor(log_MERGE_FACTOR(n)); whenever
+ * MERGE_FACTOR adjacent segments share a level they are merged into one
+ * segment on the next level up, lowest level first. Each new segment is
+ * merged O(log n) times, and an index of n docs keeps at most about
+ * MERGE_FACTOR segments per level.
+ *
+ * Merges run apart from indexing, as in
+ *   java SegmentMerger [Basic|VB|Gamma|PFor|GroupVarint] index_dir [-bindict]
+ * for instance right after each incremental Index run, in the background, so
+ * that the run adding a day's segment never waits for a chain of merges up
+ * to the top level. Until the merger gets to them, new segments are simply
+ * searched as more segments.
+ *
+ * A merge writes a new segment next to the old ones without holding any
+ * lock, then swaps it into the manifest under SegmentManifest.lock and only
+ * then deletes the old directories, so a Query started meanwhile still sees
+ * a complete index and an Index run may add segments at any time. Index
+ * only appends to the manifest, so the merged segments are still where the
+ * merge found them. At most one merger runs per index directory, which
+ * MERGE_LOCK_FILE_NAME ensures.
+ */
+public class SegmentMerger {
+
+    // Segments combined by one merge, also the size ratio between levels
+    static final int MERGE_FACTOR = 4;
+    private static final String MERGE_LOCK_FILE_NAME = "merge.lock";
+
+    private final File dir;
+    private final BaseIndex codec;
+    private final boolean binaryDict;
+
+    /*
+     * codec is the doc id codec of the segments in dir, the merged segments
+     * get corpus.dict if binaryDict is set and the text dictionaries otherwise
+     */
+    public SegmentMerger(File dir, BaseIndex codec, boolean binaryDict) {
+        this.dir = dir;
+        this.codec = codec;
+        this.binaryDict = binaryDict;
+    }
+
+    static int level(SegmentManifest.Entry entry) {
+        int level = 0;
+        for (int n = entry.numDocs(); n >= MERGE_FACTOR; n /= MERGE_FACTOR) {
+            level++;
+        }
+        return level;
+    }
+
+    /* First of MERGE_FACTOR adjacent segments on the lowest shared level, or -1 */
+    static int findMerge(List<SegmentManifest.Entry> entries) {
+        int best = -1;
+        int bestLevel = Integer.MAX_VALUE;
+        for (int i = 0; i + MERGE_FACTOR <= entries.size(); i++) {
+            int level = level(entries.get(i));
+            boolean sameLevel = level < bestLevel;
+            for (int j = 1; sameLevel && j < MERGE_FACTOR; j++) {
+                sameLevel = level(entries.get(i + j)) == level;
+            }
+            if (sameLevel) {
+                best = i;
+                bestLevel = level;
+            }
+        }
+        return best;
+    }
+
+    /*
+     * Run merges until the policy finds nothing left to merge, including in
+     * segments added meanwhile. Returns false without merging if another
+     * merger holds dir.
+     */
+    public boolean mergeAll() throws IOException {
+        FileChannel mergeLock = new RandomAccessFile(new File(dir, MERGE_LOCK_FILE_NAME), "rw").getChannel();
+        try {
+            if (mergeLock.tryLock() == null) return false;
+            while (mergeNext()) {
+            }
+            return true;
+        } finally {
+            mergeLock.close();
+        }
+    }
+
+    /* Run the merge the policy picks first, if any */
+    private boolean mergeNext() throws IOException {
+        List<SegmentManifest.Entry> run;
+        String name;
+        FileLock lock = SegmentManifest.lock(dir);
+        try {
+            List<SegmentManifest.Entry> entries = SegmentManifest.read(dir);
+            int start = findMerge(entries);
+            if (start < 0) return false;
+            run = new ArrayList<SegmentManifest.Entry>(entries.subList(start, start + MERGE_FACTOR));
+            name = SegmentManifest.newSegmentDir(dir, entries);
+        } finally {
+            lock.channel().close();
+        }
+
+        SegmentManifest.Entry merged = merge(run, name);
+
+        lock = SegmentManifest.lock(dir);
+        try {
+            List<SegmentManifest.Entry> entries = SegmentManifest.read(dir);
+            int start = 0;
+            while (start < entries.size() && !entries.get(start).name.equals(run.get(0).name)) {
+                start++;
+            }
+            for (int i = 0; i < MERGE_FACTOR; i++) {
+                if (start + i >= entries.size() || !entries.get(start + i).name.equals(run.get(i).name)) {
+                    throw new IllegalStateException("Segments " + run.get(0).name + "... left the manifest during a merge");
+                }
+            }
+            List<SegmentManifest.Entry> next = new ArrayList<SegmentManifest.Entry>(entries.subList(0, start));
+            next.add(merged);
+            next.addAll(entries.subList(start + MERGE_FACTOR, entries.size()));
+            SegmentManifest.write(dir, next);
+        } finally {
+            lock.channel().close();
+        }
+
+        for (SegmentManifest.Entry entry : run) {
+            delete(new File(dir, entry.name));
+        }
+        return true;
+    }
+
+    /*
+     * Merge adjacent segments into the new, empty segment directory name. The doc id
+     * ranges are disjoint and ascending, so a term's merged posting is the
+     * concatenation of its postings in segment order. Terms get new ids in
+     * term order.
+     */
+    private SegmentManifest.Entry merge(List<SegmentManifest.Entry> run, String name) throws IOException {
+        File out = new File(dir, name);
+
+        List<IndexSegment> sources = new ArrayList<IndexSegment>(run.size());
+        List<String> blocks = new ArrayList<String>();
+        for (SegmentManifest.Entry entry : run) {
+            sources.add(IndexSegment.open(new File(dir, entry.name), codec, false));
+            blocks.addAll(entry.blocks);
+        }
+        boolean positional = sources.get(0).isPositional();
+        boolean frequencies = sources.get(0).hasFrequencies();
+        BaseIndex index = codec;
+        if (positional) {
+            index = new PositionalIndex(codec);
+        } else if (frequencies) {
+            index = new FrequencyIndex(codec);
+        }
+
+        /* Term -> its term id in each source, -1 where it does not occur */
+        TreeMap<String, int[]> sourceTermIds = new TreeMap<String, int[]>();
+        for (int i = 0; i < sources.size(); i++) {
+            for (Map.Entry<String, Integer> term : sources.get(i).terms().entrySet()) {
+                int[] termIds = sourceTermIds.get(term.getKey());
+                if (termIds == null) {
+                    termIds = new int[sources.size()];
+                    Arrays.fill(termIds, -1);
+                    sourceTermIds.put(term.getKey(), termIds);
+                }
+                termIds[i] = term.getValue();
+            }
+        }
+
+        Map<String, Integer> termDict = new TreeMap<String, Integer>();
+        Map<String, Integer> docDict = new TreeMap<String, Integer>();
+        Map<Integer, Pair<Long, Integer>> postingDict = new TreeMap<Integer, Pair<Long, Integer>>();
+
+        RandomAccessFile indexFile = new RandomAccessFile(new File(out, "corpus.index"), "rw");
+        FileChannel fc = indexFile.getChannel();
+        int termId = 0;
+        for (Map.Entry<String, int[]> term : sourceTermIds.entrySet()) {
+            PostingList posting = null;
+            for (int i = 0; i < sources.size(); i++) {
+                if (term.getValue()[i] < 0) continue;
+                PostingList p = sources.get(i).readPosting(term.getValue()[i]);
+                if (p == null) continue;
+                posting = posting == null ? p : PostingList.merge(posting, p);
+            }
+            if (posting == null) continue;
+            posting = posting.withTermId(termId);
+            postingDict.put(termId, new Pair<>(fc.position(), posting.size()));
+            index.writePosting(fc, posting);
+            termDict.put(term.getKey(), termId++);
+        }
+        indexFile.close();
+
+        /* Doc lengths are in doc id order, as the sources are */
+        boolean docLengths = true;
+        int numDocs = 0;
+        for (IndexSegment source : sources) {
+            docLengths &= source.hasDocLengths();
+            numDocs += docLengths ? source.docLengths().length : 0;
+        }
+        int[] lengths = docLengths ? new int[numDocs] : null;
+        int offset = 0;
+        for (IndexSegment source : sources) {
+            docDict.putAll(source.docs());
+            if (docLengths) {
+                System.arraycopy(source.docLengths(), 0, lengths, offset, source.docLengths().length);
+                offset += source.docLengths().length;
+            }
+            source.close();
+        }
+        Index.writeDictionaries(out, termDict, docDict, postingDict, binaryDict);
+        if (docLengths) Index.writeDocLengths(out, lengths);
+        Index.mark(out, Index.POSITIONAL_MARKER, positional);
+        Index.mark(out, Index.FREQUENCIES_MARKER, frequencies);
+
+        return new SegmentManifest.Entry(name, run.get(0).firstDocId, run.get(run.size() - 1).lastDocId, blocks);
+    }
+
+    /* Delete a segment directory and the files in it */
+    private static void delete(File segmentDir) {
+        File[] files = segmentDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        segmentDir.delete();
+    }
+
+    public static void main(String[] args) throws IOException {
+        /* Parse command line */
+        if (args.length < 2) {
+            System.err.println("Usage: java SegmentMerger [Basic|VB|Gamma|PFor|GroupVarint] index_dir [-bindict]");
+            return;
+        }
+
+        /* Optional flags */
+        boolean binaryDict = false;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("-bindict")) {
+                binaryDict = true;
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
+
+        /* Get index */
+        String className = "cs276.assignments." + args[0] + "Index";
+        BaseIndex index;
+        try {
+            Class<?> indexClass = Class.forName(className);
+            index = (BaseIndex) indexClass.newInstance();
+        } catch (Exception e) {
+            System.err.println("Index method must be \"Basic\", \"VB\", \"Gamma\", \"PFor\", or \"GroupVarint\"");
+            throw new RuntimeException(e);
+        }
+
+        /* Get index directory */
+        File dir = new File(args[1]);
+        if (!SegmentManifest.exists(dir)) {
+            System.err.println("Not an incremental index: " + args[1]);
+            return;
+        }
+
+        if (!new SegmentMerger(dir, index, binaryDict).mergeAll()) {
+            System.err.println("Another merge is running on " + args[1]);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package cs276.assignments;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import cs276.util.Pair;
+import cs276.util.Tokenizer;
+
+/*
+ * Single-pass in-memory indexing (SPIMI). Docs are inverted one after the
+ * other into postings keyed by the term itself, so no global term -> term id
+ * dictionary exists while inverting. Whenever the estimated size of the
+ * postings in memory reaches the budget, they are written out as a run
+ * sorted by term and memory starts over; runs are cut between docs, wherever
+ * the block directories begin and end.
+ *
+ * A run file is a sequence of
+ *   int termBytes, byte[termBytes] term (UTF-8), posting
+ * with the posting in the index codec. finish() merges all runs by term in
+ * a single pass into corpus.index, handing out term ids in term order, and
+ * streams term.dict and posting.dict to disk as it goes, so the vocabulary
+ * is never held in memory either (except for the -bindict dictionary, which
+ * is built from maps).
+ */
+public class SpimiIndexer {
+
+    /*
+     * Rough heap cost of a new term (String, map entry, PostingList, intern
+     * table slots) and of one int in its arrays
+     */
+    private static final long TERM_BYTES = 128;
+    private static final long INT_BYTES = 2 * BaseIndex.INT_BYTES;
+
+    private final BaseIndex index;
+    private final boolean positional;
+    private final boolean frequencies;
+    private final long budget;
+    private final File dir;
+
+    private Map<String, PostingList> postings = new HashMap<String, PostingList>();
+    private long usedBytes = 0;
+    private final List<File> runs = new ArrayList<File>();
+    // Its intern table only holds the terms of the current run
+    private Tokenizer tokenizer = new Tokenizer();
+
+    /* Spill runs to dir whenever the postings in memory take about budget bytes */
+    public SpimiIndexer(BaseIndex index, boolean positional, boolean frequencies, long budget, File dir) {
+        this.index = index;
+        this.positional = positional;
+        this.frequencies = frequencies;
+        this.budget = budget;
+        this.dir = dir;
+    }
+
+    /*
+     * Invert one document, doc ids must be given in increasing order. Returns
+     * its length in tokens.
+     */
+    public int invert(File file, int docId) throws IOException {
+        Reader reader = new FileReader(file);
+        tokenizer.reset(reader);
+        int position = 0;
+        while (tokenizer.next()) {
+            String term = tokenizer.term();
+            PostingList posting = postings.get(term);
+            if (posting == null) {
+                posting = new PostingList(0);
+                postings.put(term, posting);
+                usedBytes += TERM_BYTES + 2 * term.length();
+            }
+            if (positional) {
+                if (posting.isEmpty() || posting.getLast() != docId) usedBytes += INT_BYTES;
+                posting.addPosition(docId, position);
+                usedBytes += INT_BYTES;
+            } else if (frequencies) {
+                /* A doc id and its frequency */
+                if (posting.isEmpty() || posting.getLast() != docId) usedBytes += 2 * INT_BYTES;
+                posting.addOccurrence(docId);
+            } else if (posting.isEmpty() || posting.getLast() != docId) {
+                posting.add(docId);
+                usedBytes += INT_BYTES;
+            }
+            position++;
+        }
+        reader.close();
+
+        /* Only between docs, so a doc's positions are never split across runs */
+        if (usedBytes >= budget) spill();
+        return position;
+    }
+
+    /* Write the postings in memory as a run sorted by term */
+    private void spill() throws IOException {
+        if (postings.isEmpty()) return;
+        String[] terms = postings.keySet().toArray(new String[postings.size()]);
+        Arrays.sort(terms);
+
+        File runFile = new File(dir, "run+" + (runs.size() + 1));
+        RandomAccessFile raf = new RandomAccessFile(runFile, "rw");
+        raf.setLength(0);
+        FileChannel fc = raf.getChannel();
+        for (String term : terms) {
+            byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buf = ByteBuffer.allocate(BaseIndex.INT_BYTES + bytes.length);
+            buf.putInt(bytes.length).put(bytes).flip();
+            fc.write(buf);
+            index.writePosting(fc, postings.get(term));
+        }
+        raf.close();
+        runs.add(runFile);
+
+        postings = new HashMap<String, PostingList>();
+        tokenizer = new Tokenizer();
+        usedBytes = 0;
+    }
+
+    /* Read position in one run file during the merge */
+    private class RunCursor {
+        final int run;
+        final FileChannel fc;
+        String term;
+        PostingList posting;
+
+        RunCursor(int run, FileChannel fc) {
+            this.run = run;
+            this.fc = fc;
+        }
+
+        boolean advance() throws IOException {
+            ByteBuffer lenBuf = ByteBuffer.allocate(BaseIndex.INT_BYTES);
+            if (fc.read(lenBuf) < BaseIndex.INT_BYTES) return false;
+            lenBuf.flip();
+            ByteBuffer termBuf = ByteBuffer.allocate(lenBuf.getInt());
+            fc.read(termBuf);
+            term = new String(termBuf.array(), StandardCharsets.UTF_8);
+            posting = index.readPosting(fc);
+            return true;
+        }
+    }
+
+    /*
+     * Spill what is left and merge every run into corpus.index, then write
+     * the dictionaries for docDict and the merged terms
+     */
+    public void finish(Map<String, Integer> docDict, boolean binaryDict) throws IOException {
+        spill();
+
+        /* Equal terms come out in run order, which is doc order */
+        PriorityQueue<RunCursor> heap = new PriorityQueue<RunCursor>(Math.max(1, runs.size()), new Comparator<RunCursor>() {
+            @Override
+            public int compare(RunCursor c1, RunCursor c2) {
+                int cmp = c1.term.compareTo(c2.term);
+                return cmp != 0 ? cmp : c1.run - c2.run;
+            }
+        });
+        List<RandomAccessFile> files = new ArrayList<RandomAccessFile>(runs.size());
+        for (int i = 0; i < runs.size(); i++) {
+            RandomAccessFile rf = new RandomAccessFile(runs.get(i), "r");
+            files.add(rf);
+            RunCursor cursor = new RunCursor(i, rf.getChannel());
+            if (cursor.advance()) heap.add(cursor);
+        }
+
+        Map<String, Integer> termDict = new TreeMap<String, Integer>();
+        Map<Integer, Pair<Long, Integer>> postingDict = new TreeMap<Integer, Pair<Long, Integer>>();
+        BufferedWriter termWriter = null;
+        BufferedWriter postWriter = null;
+        if (!binaryDict) {
+            termWriter = new BufferedWriter(new FileWriter(new File(dir, "term.dict")));
+            postWriter = new BufferedWriter(new FileWriter(new File(dir, "posting.dict")));
+        }
+
+        RandomAccessFile indexFile = new RandomAccessFile(new File(dir, "corpus.index"), "rw");
+        indexFile.setLength(0);
+        FileChannel fc = indexFile.getChannel();
+        int termId = 0;
+        while (!heap.isEmpty()) {
+            RunCursor cursor = heap.poll();
+            String term = cursor.term;
+            PostingList p = cursor.posting;
+            if (cursor.advance()) heap.add(cursor);
+            while (!heap.isEmpty() && heap.peek().term.equals(term)) {
+                cursor = heap.poll();
+                p = PostingList.merge(p, cursor.posting);
+                if (cursor.advance()) heap.add(cursor);
+            }
+
+            long pos = fc.position();
+            index.writePosting(fc, p.withTermId(termId));
+            if (binaryDict) {
+                termDict.put(term, termId);
+                postingDict.put(termId, new Pair<>(pos, p.size()));
+            } else {
+                termWriter.write(term + "\t" + termId + "\n");
+                postWriter.write(termId + "\t" + pos + "\t" + p.size() + "\n");
+            }
+            termId++;
+        }
+        indexFile.close();
+
+        for (RandomAccessFile rf : files) {
+            rf.close();
+        }
+        for (File run : runs) {
+            run.delete();
+        }
+
+        if (binaryDict) {
+            Index.writeDictionaries(dir, termDict, docDict, postingDict, true);
+        } else {
+            termWriter.close();
+            postWriter.close();
+            Index.writeDocDict(dir, docDict);
+        }
+    }
+}
@@ -3,25 +3,30 @@ package cs276.assignments;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.ArrayList;
-import java.util.List;
 
 public class VBIndex implements BaseIndex {
 
-    public static List<Integer> gapEncode(List<Integer> docIds) {
-        List<Integer> gaps = new ArrayList<Integer>(docIds);
-        for (int i = docIds.size() - 1; i > 0; i--) {
-            gaps.set(i, docIds.get(i) - docIds.get(i - 1));
+    // Set in the totalBytes header field when a skip table follows
+    private static final int SKIP_FLAG = 0x80000000;
+    // Each skip entry is a doc id and a byte offset into the gaps
+    private static final int SKIP_ENTRY_BYTES = INT_BYTES * 2;
+    // Shorter postings are not worth a skip table
+    private static final int MIN_SKIP_POSTINGS = 1024;
+
+    public static int[] gapEncode(int[] docIds, int size) {
+        int[] gaps = new int[size];
+        if (size == 0) return gaps;
+        gaps[0] = docIds[0];
+        for (int i = 1; i < size; i++) {
+            gaps[i] = docIds[i] - docIds[i - 1];
         }
         return gaps;
     }
 
-    public static List<Integer> gapDecode(List<Integer> gaps) {
-        List<Integer> docIds = new ArrayList<Integer>(gaps);
-        for (int i = 1; i < gaps.size(); i++) {
-            docIds.set(i, gaps.get(i) + gaps.get(i - 1));
+    public static void gapDecode(int[] gapsOutputDocIds, int size) {
+        for (int i = 1; i < size; i++) {
+            gapsOutputDocIds[i] += gapsOutputDocIds[i - 1];
         }
-        return docIds;
     }
 
     public static int VBEncodeInteger(int gap, byte[] outputVBCode) {
@@ -59,46 +64,171 @@ public class VBIndex implements BaseIndex {
         int termId = metaBuf.getInt();
         int totalBytes = metaBuf.getInt();
 
-        ByteBuffer gapsBuf = ByteBuffer.allocate(totalBytes);
+        int skipBytes = 0;
+        if ((totalBytes & SKIP_FLAG) != 0) {
+            totalBytes &= ~SKIP_FLAG;
+            ByteBuffer skipBuf = ByteBuffer.allocate(INT_BYTES);
+            fc.read(skipBuf);
+            skipBuf.flip();
+            skipBytes = SKIP_ENTRY_BYTES * skipBuf.getInt();
+        }
+
+        ByteBuffer gapsBuf = ByteBuffer.allocate(skipBytes + totalBytes);
         fc.read(gapsBuf);
         gapsBuf.flip();
+        gapsBuf.position(skipBytes);
+
+        return decodePosting(termId, gapsBuf, totalBytes);
+    }
+
+    @Override
+    public PostingList readPosting(ByteBuffer buf) {
+        int termId = buf.getInt();
+        int totalBytes = buf.getInt();
+        if ((totalBytes & SKIP_FLAG) != 0) {
+            totalBytes &= ~SKIP_FLAG;
+            int numSkips = buf.getInt();
+            buf.position(buf.position() + SKIP_ENTRY_BYTES * numSkips);
+        }
+        return decodePosting(termId, buf, totalBytes);
+    }
 
-        List<Integer> gaps = new ArrayList<Integer>();
-        int startIndex = 0;
-        int[] numberEndIndex = new int[2];
-        while (startIndex < totalBytes) {
-            VBDecodeInteger(gapsBuf.array(), startIndex, numberEndIndex);
-            gaps.add(numberEndIndex[0]);
-            startIndex = numberEndIndex[1];
+    @Override
+    public PostingIterator iterator(ByteBuffer buf) {
+        buf.getInt();
+        int totalBytes = buf.getInt();
+        int numSkips = 0;
+        if ((totalBytes & SKIP_FLAG) != 0) {
+            totalBytes &= ~SKIP_FLAG;
+            numSkips = buf.getInt();
         }
+        int skipStart = buf.position();
+        int gapsStart = skipStart + SKIP_ENTRY_BYTES * numSkips;
+        buf.position(gapsStart + totalBytes);
+        return new VBPostingIterator(buf, skipStart, numSkips, gapsStart, gapsStart + totalBytes);
+    }
 
-        List<Integer> docIds = gapDecode(gaps);
-        return new PostingList(termId, docIds);
+    private static PostingList decodePosting(int termId, ByteBuffer buf, int totalBytes) {
+        PostingList p = new PostingList(termId);
+        int end = buf.position() + totalBytes;
+        int number = 0;
+        while (buf.position() < end) {
+            byte b = buf.get();
+            number = (number << 7) + (b & 0b01111111);
+            if ((b & 0b10000000) != 0) {
+                p.add(number);
+                number = 0;
+            }
+        }
+
+        gapDecode(p.getPostings(), p.size());
+        return p;
     }
 
+    /*
+     * Layout: termId, totalBytes, then the VB coded gaps. Postings of at least
+     * MIN_SKIP_POSTINGS docs set SKIP_FLAG in totalBytes and put a skip table
+     * between the header and the gaps: a count, then every sqrt(n) postings
+     * the doc id reached and the offset of the gap that follows it. Indexes
+     * written before skip tables never have the flag set and read as before.
+     */
     @Override
     public void writePosting(FileChannel fc, PostingList p) throws IOException {
-        ByteBuffer metaBuf = ByteBuffer.allocate(INT_BYTES * 2);
-        ByteBuffer gapsBuf = ByteBuffer.allocate(INT_BYTES * p.getList().size());
-        List<Integer> gaps = gapEncode(p.getList());
+        int size = p.size();
+        int[] docIds = p.getPostings();
+        int[] gaps = gapEncode(docIds, size);
+
+        int skipInterval = size >= MIN_SKIP_POSTINGS ? (int) Math.ceil(Math.sqrt(size)) : 0;
+        int numSkips = skipInterval > 0 ? (size - 1) / skipInterval : 0;
+
+        ByteBuffer metaBuf = ByteBuffer.allocate(INT_BYTES * 3 + SKIP_ENTRY_BYTES * numSkips);
+        ByteBuffer gapsBuf = ByteBuffer.allocate((INT_BYTES + 1) * size);
 
         int termId = p.getTermId();
         int totalBytes = 0;
 
-        byte[] outputVBCode = new byte[INT_BYTES];
-        for (int gap : gaps) {
-            int numByte = VBEncodeInteger(gap, outputVBCode);
+        metaBuf.position(numSkips > 0 ? INT_BYTES * 3 : INT_BYTES * 2);
+        byte[] outputVBCode = new byte[INT_BYTES + 1];
+        for (int i = 0; i < size; i++) {
+            int numByte = VBEncodeInteger(gaps[i], outputVBCode);
             totalBytes += numByte;
             gapsBuf.put(outputVBCode, 0, numByte);
+            if (numSkips > 0 && (i + 1) % skipInterval == 0 && i + 1 < size) {
+                metaBuf.putInt(docIds[i]);
+                metaBuf.putInt(totalBytes);
+            }
+        }
+
+        metaBuf.putInt(0, termId);
+        if (numSkips > 0) {
+            metaBuf.putInt(INT_BYTES, totalBytes | SKIP_FLAG);
+            metaBuf.putInt(INT_BYTES * 2, numSkips);
+        } else {
+            metaBuf.putInt(INT_BYTES, totalBytes);
         }
 
-        metaBuf.putInt(termId);
-        metaBuf.putInt(totalBytes);
-        
         metaBuf.flip();
         gapsBuf.flip();
 
         fc.write(metaBuf);
         fc.write(gapsBuf);
     }
+
+    /* Lazy VB decoder that follows the skip table on advance */
+    private static class VBPostingIterator implements PostingIterator {
+        private final ByteBuffer buf;
+        private final int skipStart;
+        private final int numSkips;
+        private final int gapsStart;
+        private final int gapsEnd;
+        private int pos;
+        private int nextSkip = 0;
+        private int docId = -1;
+        private int prevDocId = 0;
+
+        VBPostingIterator(ByteBuffer buf, int skipStart, int numSkips, int gapsStart, int gapsEnd) {
+            this.buf = buf;
+            this.skipStart = skipStart;
+            this.numSkips = numSkips;
+            this.gapsStart = gapsStart;
+            this.gapsEnd = gapsEnd;
+            this.pos = gapsStart;
+        }
+
+        @Override
+        public int docId() {
+            return docId;
+        }
+
+        @Override
+        public int next() {
+            if (pos >= gapsEnd) return docId = NO_MORE_DOCS;
+            int number = 0;
+            byte b;
+            do {
+                b = buf.get(pos++);
+                number = (number << 7) + (b & 0b01111111);
+            } while ((b & 0b10000000) == 0);
+            prevDocId += number;
+            return docId = prevDocId;
+        }
+
+        @Override
+        public int advance(int target) {
+            if (docId >= target) return docId;
+            while (nextSkip < numSkips) {
+                int entry = skipStart + SKIP_ENTRY_BYTES * nextSkip;
+                int skipDocId = buf.getInt(entry);
+                if (skipDocId >= target) break;
+                int skipPos = gapsStart + buf.getInt(entry + INT_BYTES);
+                if (skipPos > pos) {
+                    pos = skipPos;
+                    prevDocId = docId = skipDocId;
+                }
+                nextSkip++;
+            }
+            while (next() < target);
+            return docId;
+        }
+    }
 }
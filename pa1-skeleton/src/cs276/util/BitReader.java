@@ -0,0 +1,93 @@
+package cs276.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads bit fields written by BitWriter (or a java.util.BitSet) out of
+ * 64-bit words. A field is pulled out with one shift of its word, or two
+ * when it straddles a word boundary, and a unary code is counted with
+ * Long.numberOfTrailingZeros, a word at a time, instead of one BitSet.get
+ * per bit. The lowest bit comes first in this layout, so the first one bits
+ * of a unary code are the word's trailing ones.
+ */
+public class BitReader {
+
+    /* One extra zero word so that reads near the end need no bounds checks */
+    private final long[] words;
+    private final int numBits;
+    private int position = 0;
+
+    /**
+     * Copy numBytes from buf, starting at its position, which is moved past
+     * them
+     */
+    public BitReader(ByteBuffer buf, int numBytes) {
+        numBits = numBytes << 3;
+        words = new long[((numBytes + 7) >>> 3) + 1];
+        ByteBuffer slice = buf.slice();
+        slice.limit(numBytes);
+        slice.order(ByteOrder.LITTLE_ENDIAN);
+        int fullWords = numBytes >>> 3;
+        slice.asLongBuffer().get(words, 0, fullWords);
+        for (int i = fullWords << 3; i < numBytes; i++) {
+            words[fullWords] |= (slice.get(i) & 0xffL) << ((i & 7) << 3);
+        }
+        buf.position(buf.position() + numBytes);
+    }
+
+    /** Bits available, a multiple of 8 */
+    public int numBits() {
+        return numBits;
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public void position(int position) {
+        this.position = position;
+    }
+
+    /**
+     * Read an n bit field, the first bit read is bit 0 of the result
+     *
+     * @param n
+     *            0 to 64
+     */
+    public long read(int n) {
+        if (n == 0) return 0;
+        int word = position >>> 6;
+        int shift = position & 63;
+        long bits = words[word] >>> shift;
+        if (shift + n > 64) {
+            bits |= words[word + 1] << (64 - shift);
+        }
+        position += n;
+        return n == 64 ? bits : bits & ((1L << n) - 1);
+    }
+
+    /** Count one bits up to the next zero, which is consumed too */
+    public int readUnary() {
+        int number = 0;
+        while (true) {
+            int shift = position & 63;
+            /* Bits shifted in from the top read as zeros and stop the count */
+            int ones = Long.numberOfTrailingZeros(~(words[position >>> 6] >>> shift));
+            if (ones < 64 - shift) {
+                position += ones + 1;
+                return number + ones;
+            }
+            number += ones;
+            position += ones;
+        }
+    }
+
+    /** Read a gamma code as written by BitWriter.writeGamma */
+    public int readGamma() {
+        int offsetBits = readUnary();
+        if (offsetBits == 0) return 1;
+        int offset = (int) read(offsetBits);
+        return (1 << offsetBits) | (Integer.reverse(offset) >>> (32 - offsetBits));
+    }
+}
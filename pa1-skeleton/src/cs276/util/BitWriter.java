@@ -0,0 +1,86 @@
+package cs276.util;
+
+import java.util.Arrays;
+
+/**
+ * Appends bit fields to a growable array of longs. Bits are laid out like a
+ * java.util.BitSet: bit i of the stream is bit (i % 64) of word i / 64, and
+ * toByteArray() gives the bytes of BitSet.toByteArray() padded out to
+ * numBits(), so the output reads back through BitReader or BitSet.valueOf
+ * alike.
+ *
+ * A field is written with at most two shifts into the current and next word
+ * instead of one BitSet.set per bit.
+ */
+public class BitWriter {
+
+    private long[] words = new long[16];
+    private int numBits = 0;
+
+    /** Number of bits written so far */
+    public int numBits() {
+        return numBits;
+    }
+
+    /** Forget everything written, keeping the buffer */
+    public void reset() {
+        Arrays.fill(words, 0, (numBits + 63) >>> 6, 0L);
+        numBits = 0;
+    }
+
+    /**
+     * Append the low n bits of bits, bit 0 first
+     *
+     * @param n
+     *            0 to 64
+     */
+    public void write(long bits, int n) {
+        if (n == 0) return;
+        if (n < 64) bits &= (1L << n) - 1;
+        int word = numBits >>> 6;
+        int shift = numBits & 63;
+        if (word + 1 >= words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        words[word] |= bits << shift;
+        if (shift + n > 64) {
+            words[word + 1] = bits >>> (64 - shift);
+        }
+        numBits += n;
+    }
+
+    /** Append number one bits followed by a zero */
+    public void writeUnary(int number) {
+        while (number >= 63) {
+            write(-1L, 63);
+            number -= 63;
+        }
+        write((1L << number) - 1, number + 1);
+    }
+
+    /**
+     * Append the gamma code of number: the unary code of its bit length
+     * minus one, then its bits below the leading one, highest first. Zero
+     * has no gamma code and writes nothing.
+     */
+    public void writeGamma(int number) {
+        if (number <= 0) return;
+        int offsetBits = 31 - Integer.numberOfLeadingZeros(number);
+        long code = (1L << offsetBits) - 1;
+        if (offsetBits > 0) {
+            /* Reversed, so the highest offset bit is the first one written */
+            long offset = (Integer.reverse(number) >>> (32 - offsetBits)) & ((1L << offsetBits) - 1);
+            code |= offset << (offsetBits + 1);
+        }
+        write(code, 2 * offsetBits + 1);
+    }
+
+    /** The bits written, padded with zeros to whole bytes, lowest first */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[(numBits + 7) >>> 3];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (words[i >>> 3] >>> ((i & 7) << 3));
+        }
+        return bytes;
+    }
+}
@@ -5,6 +5,7 @@ public class BuildModels {
   public static double MU = .05;
   public static LanguageModel languageModel;
   public static NoisyChannelModel noisyChannelModel;
+  public static DeletionIndex deletionIndex;
 
   public static void main(String[] args) throws Exception {
 
@@ -28,10 +29,12 @@ public class BuildModels {
 
     languageModel = LanguageModel.create(trainingCorpus);
     noisyChannelModel = NoisyChannelModel.create(editsFile);
+    deletionIndex = DeletionIndex.create(languageModel);
 
     // Save the models to disk
     noisyChannelModel.save();
     languageModel.save();
+    deletionIndex.save();
 
     if ("extra".equals(extra)) {
       /*
@@ -1,19 +1,30 @@
 package edu.stanford.cs276;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import edu.stanford.cs276.util.Trie;
+
 public class CandidateGenerator implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private static final double mu = Config.cgMu;
     private static final int editDistanceLimit = Config.cgEditDistanceLimit;
+    private static final String candidateSource = Config.cgCandidateSource;
+    private static final int beamWidth = Config.cgBeamWidth;
 
     private static LanguageModel lm_;
     private static CandidateGenerator cg_;
     private static NoisyChannelModel ncm_;
+    private static Trie vocabularyTrie_;
+    private static DeletionIndex deletionIndex_;
 
     // Don't use the constructor since this is a Singleton instance
     private CandidateGenerator() {
@@ -53,12 +64,52 @@ public class CandidateGenerator implements Serializable {
 
     }
 
+    /*
+     * A correction of the query up to some position: the words it ended
+     * with, the edits spent so far and its log probabilities, with a link to
+     * the hypothesis it extends
+     */
+    private static class Hypothesis {
+        final Hypothesis back;
+        final String phrase;
+        final String lastWord;
+        final int edits;
+        final double logChannelProb;
+        final double logProb;
+
+        Hypothesis(Hypothesis back, String phrase, String lastWord, int edits, double logChannelProb, double logProb) {
+            this.back = back;
+            this.phrase = phrase;
+            this.lastWord = lastWord;
+            this.edits = edits;
+            this.logChannelProb = logChannelProb;
+            this.logProb = logProb;
+        }
+
+        String candidate() {
+            StringBuilder sb = new StringBuilder();
+            for (Hypothesis h = this; h.back != null; h = h.back) {
+                sb.insert(0, h.phrase).insert(0, ' ');
+            }
+            return sb.toString().trim();
+        }
+    }
+
+    private static final Comparator<Hypothesis> BY_PROB = new Comparator<Hypothesis>() {
+        @Override
+        public int compare(Hypothesis h1, Hypothesis h2) {
+            return Double.compare(h2.logProb, h1.logProb);
+        }
+    };
+
     public static CandidateGenerator get() throws Exception {
         if (cg_ == null) {
             cg_ = new CandidateGenerator();
             lm_ = LanguageModel.load();
             ncm_ = NoisyChannelModel.load();
             ncm_.setProbabilityType("uniform");
+            if (candidateSource.equals("trie")) vocabularyTrie_ = new Trie(lm_.vocabulary());
+            if (candidateSource.equals("deletions") || candidateSource.equals("beam")) deletionIndex_ = DeletionIndex.load();
         }
         return cg_;
     }
@@ -69,11 +120,176 @@ public class CandidateGenerator implements Serializable {
     // Generate all candidates for the target query
     public Set<CandidateWithProb> getCandidates(String query) {
         query = query.replaceAll("\\s+", " ").trim();
+        if (candidateSource.equals("deletions")) return getDeletionCandidates(query);
+        if (candidateSource.equals("beam")) {
+            Set<CandidateWithProb> candidatesWithProb = new HashSet<CandidateWithProb>();
+            for (Hypothesis h : beamSearch(query)) {
+                candidatesWithProb.add(new CandidateWithProb(h.candidate(), Math.exp(h.logChannelProb)));
+            }
+            return candidatesWithProb;
+        }
+        if (candidateSource.equals("trie")) return getVocabularyCandidates(query);
         Set<CandidateWithProb> candidates = getCandidates(new CandidateWithProb(query, 1.0), editDistanceLimit);
         if (lm_.noOfInvalidTerms(query) == 0) candidates.add(new CandidateWithProb(query, ncm_.editProbability(query, query)));
         return candidates;
     }
 
+    /*
+     * Candidates made only of vocabulary words within editDistanceLimit of the
+     * query, the query itself included if all its terms are valid, found by
+     * walking the vocabulary trie instead of enumerating every edit
+     */
+    private Set<CandidateWithProb> getVocabularyCandidates(String query) {
+        Set<CandidateWithProb> candidatesWithProb = new HashSet<CandidateWithProb>();
+        for (Trie.Match match : vocabularyTrie_.search(query, editDistanceLimit)) {
+            candidatesWithProb.add(new CandidateWithProb(match.phrase, ncm_.editProbability(match.phrase, query)));
+        }
+        return candidatesWithProb;
+    }
+
+    /*
+     * Candidates made only of vocabulary words, found through the deletion
+     * index. Each query term is corrected on its own, joined with the next
+     * term or split in two (at a new space or at a char turned into one), a
+     * join or split costing one edit, and the phrases whose edits add up to
+     * at most editDistanceLimit are kept. Edits that span a word boundary in
+     * any other way are not found.
+     */
+    private Set<CandidateWithProb> getDeletionCandidates(String query) {
+        Set<CandidateWithProb> candidatesWithProb = new HashSet<CandidateWithProb>();
+        addDeletionCandidates(query, query.split(" "), 0, new StringBuilder(), editDistanceLimit,
+                new HashMap<String, Map<String, Integer>>(), candidatesWithProb);
+        return candidatesWithProb;
+    }
+
+    /* Extend phrase, the correction of terms before i, with every correction of terms i on */
+    private void addDeletionCandidates(String query, String[] terms, int i, StringBuilder phrase, int budget,
+            Map<String, Map<String, Integer>> lookups, Set<CandidateWithProb> candidatesWithProb) {
+        if (i == terms.length) {
+            String candidate = phrase.toString();
+            candidatesWithProb.add(new CandidateWithProb(candidate, ncm_.editProbability(candidate, query)));
+            return;
+        }
+        int length = phrase.length();
+        String prefix = i == 0 ? "" : " ";
+        String term = terms[i];
+        for (Map.Entry<String, Integer> word : lookup(term, budget, lookups).entrySet()) {
+            phrase.append(prefix).append(word.getKey());
+            addDeletionCandidates(query, terms, i + 1, phrase, budget - word.getValue(), lookups, candidatesWithProb);
+            phrase.setLength(length);
+        }
+        if (budget == 0) return;
+        if (i + 1 < terms.length) {
+            for (Map.Entry<String, Integer> word : lookup(term + terms[i + 1], budget - 1, lookups).entrySet()) {
+                phrase.append(prefix).append(word.getKey());
+                addDeletionCandidates(query, terms, i + 2, phrase, budget - 1 - word.getValue(), lookups, candidatesWithProb);
+                phrase.setLength(length);
+            }
+        }
+        /* A space inserted before char k, or put in its place */
+        for (int k = 1; k < term.length(); k++) {
+            for (int skip = 0; skip <= 1 && k + skip < term.length(); skip++) {
+                for (Map.Entry<String, Integer> left : lookup(term.substring(0, k), budget - 1, lookups).entrySet()) {
+                    int rest = budget - 1 - left.getValue();
+                    for (Map.Entry<String, Integer> right : lookup(term.substring(k + skip), rest, lookups).entrySet()) {
+                        phrase.append(prefix).append(left.getKey()).append(' ').append(right.getKey());
+                        addDeletionCandidates(query, terms, i + 1, phrase, rest - right.getValue(), lookups, candidatesWithProb);
+                        phrase.setLength(length);
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Corrects the query term by term. Position i of the lattice lies before
+     * query term i, and the edges leaving it are the words near term i, the
+     * words near terms i and i + 1 joined (a space deleted) and the pairs of
+     * words near the two halves of term i (a space inserted). Each edge is
+     * scored on its own by the channel model and the bigram model, so the
+     * probability of a path only depends on its last word and edit count:
+     * hypotheses sharing those are recombined as in Viterbi, and only the
+     * beamWidth best survive at each position. The work done grows linearly
+     * with the number of query terms. Returns the complete corrections
+     * within editDistanceLimit, best first.
+     */
+    private List<Hypothesis> beamSearch(String query) {
+        String[] terms = query.split(" ");
+        Map<String, Map<String, Integer>> lookups = new HashMap<String, Map<String, Integer>>();
+        List<Map<String, Hypothesis>> lattice = new ArrayList<Map<String, Hypothesis>>();
+        for (int i = 0; i <= terms.length; i++) {
+            lattice.add(new HashMap<String, Hypothesis>());
+        }
+        lattice.get(0).put("", new Hypothesis(null, null, null, 0, 0, 0));
+
+        for (int i = 0; i < terms.length; i++) {
+            String term = terms[i];
+            for (Hypothesis h : prune(lattice.get(i))) {
+                int budget = editDistanceLimit - h.edits;
+                for (Map.Entry<String, Integer> word : lookup(term, budget, lookups).entrySet()) {
+                    extend(lattice.get(i + 1), h, term, word.getValue(), word.getKey());
+                }
+                if (budget == 0) continue;
+                if (i + 1 < terms.length) {
+                    for (Map.Entry<String, Integer> word : lookup(term + terms[i + 1], budget - 1, lookups).entrySet()) {
+                        extend(lattice.get(i + 2), h, term + " " + terms[i + 1], 1 + word.getValue(), word.getKey());
+                    }
+                }
+                /* A space inserted before char k, or put in its place */
+                for (int k = 1; k < term.length(); k++) {
+                    for (int skip = 0; skip <= 1 && k + skip < term.length(); skip++) {
+                        for (Map.Entry<String, Integer> left : lookup(term.substring(0, k), budget - 1, lookups).entrySet()) {
+                            int rest = budget - 1 - left.getValue();
+                            for (Map.Entry<String, Integer> right : lookup(term.substring(k + skip), rest, lookups).entrySet()) {
+                                extend(lattice.get(i + 1), h, term, 1 + left.getValue() + right.getValue(), left.getKey(), right.getKey());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return prune(lattice.get(terms.length));
+    }
+
+    /* Add the hypothesis h followed by words, a correction of source, to the states at the edge's end */
+    private void extend(Map<String, Hypothesis> states, Hypothesis h, String source, int edits, String... words) {
+        String phrase = words.length == 1 ? words[0] : words[0] + " " + words[1];
+        double logChannelProb = Math.log(ncm_.editProbability(phrase, source));
+        double logProb = h.logProb + logChannelProb;
+        String prev = h.lastWord;
+        for (String word : words) {
+            logProb += Math.log(prev == null ? lm_.getUnigramProb(word) : lm_.getBigramProb(prev, word));
+            prev = word;
+        }
+        String key = prev + " " + (h.edits + edits);
+        Hypothesis old = states.get(key);
+        if (old == null || logProb > old.logProb) {
+            states.put(key, new Hypothesis(h, phrase, prev, h.edits + edits, h.logChannelProb + logChannelProb, logProb));
+        }
+    }
+
+    /* The beamWidth most probable states, best first */
+    private List<Hypothesis> prune(Map<String, Hypothesis> states) {
+        List<Hypothesis> beam = new ArrayList<Hypothesis>(states.values());
+        Collections.sort(beam, BY_PROB);
+        return beam.size() > beamWidth ? beam.subList(0, beamWidth) : beam;
+    }
+
+    /* Words within distance of term, from one deletion index lookup per term and query */
+    private Map<String, Integer> lookup(String term, int distance, Map<String, Map<String, Integer>> lookups) {
+        Map<String, Integer> words = lookups.get(term);
+        if (words == null) {
+            words = deletionIndex_.lookup(term, Math.min(editDistanceLimit, deletionIndex_.maxDistance()));
+            lookups.put(term, words);
+        }
+        if (distance >= editDistanceLimit) return words;
+        Map<String, Integer> closer = new HashMap<String, Integer>();
+        for (Map.Entry<String, Integer> word : words.entrySet()) {
+            if (word.getValue() <= distance) closer.put(word.getKey(), word.getValue());
+        }
+        return closer;
+    }
+
     private Set<CandidateWithProb> getCandidates(CandidateWithProb queryWithProb, int editDistanceLimit) {
         String query = queryWithProb.candidate;
         Set<CandidateWithProb> candidatesWithProb = new HashSet<CandidateWithProb>();
@@ -121,7 +337,13 @@ public class CandidateGenerator implements Serializable {
     }
 
     public String getBestCandidate(String query) {
+        if (candidateSource.equals("beam")) {
+            List<Hypothesis> beam = beamSearch(query.replaceAll("\\s+", " ").trim());
+            return beam.isEmpty() ? query : beam.get(0).candidate();
+        }
         Set<CandidateWithProb> candidatesWithProb = getCandidates(query);
+        /* Nothing in the vocabulary is close enough, leave the query alone */
+        if (candidatesWithProb.isEmpty()) return query;
         for (CandidateWithProb candidateWithProb : candidatesWithProb) {
             candidateWithProb.prob *= lm_.getQueryProb(candidateWithProb.candidate);
         }
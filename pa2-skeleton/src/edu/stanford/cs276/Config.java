@@ -4,9 +4,18 @@ public class Config {
     public static final String noisyChannelFile = "noisyChannel";
     public static final String languageModelFile = "languageModel";
     public static final String candidateGenFile = "candidateGenerator";
+    public static final String deletionIndexFile = "deletionIndex";
 
     public static final int cgEditDistanceLimit = 2;
     public static final double cgMu = 2;
+    // Where candidates come from: "deletions" probes the DeletionIndex, "trie"
+    // walks a trie of the vocabulary and "edits" enumerates every edit;
+    // "beam" corrects term by term with a beam search over the bigram model
+    public static final String cgCandidateSource = "deletions";
+    // Partial corrections kept at each query position in "beam" mode
+    public static final int cgBeamWidth = 16;
+    // Chars of each word that DeletionIndex deletes from
+    public static final int diPrefixLength = 7;
 
     public static final double lmSmoothingLambda = 0.1;
     public static final double ucmErrorProb = 0.05;
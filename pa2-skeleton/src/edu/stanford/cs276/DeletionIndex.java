@@ -0,0 +1,270 @@
+package edu.stanford.cs276;
+
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import edu.stanford.cs276.util.ModelFile;
+
+/**
+ * DeletionIndex maps every string that can be reached by deleting up to
+ * maxDistance chars from the first prefixLength chars of a vocabulary word
+ * back to that word (symmetric delete spelling correction, as in SymSpell).
+ * Two words within edit distance k share such a deletion, so a lookup only
+ * generates the deletions of the query term, probes the table for each and
+ * checks the true distance of the few words it finds. Nothing is enumerated
+ * over the alphabet, at the price of a table built once with the models.
+ *
+ * The table is keyed by 64-bit hashes of the deletions rather than by the
+ * strings, which keeps it to a few arrays; a hash collision can only add
+ * words that the distance check then throws out.
+ *
+ * This class uses the Singleton design pattern
+ * (https://en.wikipedia.org/wiki/Singleton_pattern).
+ */
+public class DeletionIndex {
+
+    private static DeletionIndex di_;
+    private static final long EMPTY = 0;
+    // "DELI", first int of the model file
+    private static final int MAGIC = 0x44454c49;
+
+    private final int maxDistance;
+    private final int prefixLength;
+    private final String[] words;
+
+    // Open addressing table of deletion hashes; slot i lists wordIds from
+    // starts[i] to starts[i] + counts[i]. A loaded index keeps them as views
+    // of the mapped model file.
+    private LongBuffer keys;
+    private IntBuffer starts;
+    private IntBuffer counts;
+    private IntBuffer wordIds;
+    private int numKeys = 0;
+
+    /**
+     * Constructor Do not call constructor directly from outside this class
+     * since this is a Singleton class
+     */
+    private DeletionIndex(Collection<String> vocabulary, int maxDistance, int prefixLength) {
+        this.maxDistance = maxDistance;
+        this.prefixLength = prefixLength;
+        this.words = vocabulary.toArray(new String[vocabulary.size()]);
+        Arrays.sort(words);
+
+        System.out.println("Constructing deletion index...");
+        // First count the words under each deletion, then lay the lists out
+        keys = LongBuffer.allocate(1024);
+        counts = IntBuffer.allocate(keys.limit());
+        for (String word : words) {
+            for (String deletion : deletions(word)) {
+                int slot = insert(hash(deletion));
+                counts.put(slot, counts.get(slot) + 1);
+            }
+        }
+        starts = IntBuffer.allocate(keys.limit());
+        int total = 0;
+        for (int slot = 0; slot < keys.limit(); slot++) {
+            starts.put(slot, total);
+            total += counts.get(slot);
+            counts.put(slot, 0);
+        }
+        wordIds = IntBuffer.allocate(total);
+        for (int wordId = 0; wordId < words.length; wordId++) {
+            for (String deletion : deletions(words[wordId])) {
+                int slot = find(hash(deletion));
+                wordIds.put(starts.get(slot) + counts.get(slot), wordId);
+                counts.put(slot, counts.get(slot) + 1);
+            }
+        }
+        System.out.printf("Done: %d words, %d deletions, %d entries.\n", words.length, numKeys, total);
+    }
+
+    private DeletionIndex(ByteBuffer buf) {
+        maxDistance = buf.getInt();
+        prefixLength = buf.getInt();
+        numKeys = buf.getInt();
+        words = ModelFile.readStrings(buf);
+        keys = ModelFile.mapLongs(buf);
+        starts = ModelFile.mapInts(buf);
+        counts = ModelFile.mapInts(buf);
+        wordIds = ModelFile.mapInts(buf);
+    }
+
+    /* The distinct strings left after deleting up to maxDistance chars from the word's prefix */
+    private Set<String> deletions(String word) {
+        Set<String> deletions = new HashSet<String>();
+        String prefix = word.length() > prefixLength ? word.substring(0, prefixLength) : word;
+        deletions.add(prefix);
+        addDeletions(prefix, maxDistance, deletions);
+        return deletions;
+    }
+
+    private static void addDeletions(String s, int distance, Set<String> deletions) {
+        if (distance == 0) return;
+        for (int i = 0; i < s.length(); i++) {
+            String deletion = s.substring(0, i) + s.substring(i + 1);
+            if (deletions.add(deletion)) addDeletions(deletion, distance - 1, deletions);
+        }
+    }
+
+    /* 64-bit FNV-1a, never EMPTY */
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h == EMPTY ? 1 : h;
+    }
+
+    private int slot(long key) {
+        return (int) (key ^ (key >>> 32)) & (keys.limit() - 1);
+    }
+
+    /* Slot holding key, or -1 */
+    private int find(long key) {
+        for (int slot = slot(key);; slot = (slot + 1) & (keys.limit() - 1)) {
+            long k = keys.get(slot);
+            if (k == key) return slot;
+            if (k == EMPTY) return -1;
+        }
+    }
+
+    /* Slot holding key, adding it first if needed; only while counting */
+    private int insert(long key) {
+        int slot = find(key);
+        if (slot >= 0) return slot;
+        if (2 * (numKeys + 1) > keys.limit()) grow();
+        slot = slot(key);
+        while (keys.get(slot) != EMPTY) {
+            slot = (slot + 1) & (keys.limit() - 1);
+        }
+        keys.put(slot, key);
+        numKeys++;
+        return slot;
+    }
+
+    private void grow() {
+        LongBuffer oldKeys = keys;
+        IntBuffer oldCounts = counts;
+        keys = LongBuffer.allocate(oldKeys.limit() * 2);
+        counts = IntBuffer.allocate(keys.limit());
+        for (int i = 0; i < oldKeys.limit(); i++) {
+            if (oldKeys.get(i) == EMPTY) continue;
+            int slot = slot(oldKeys.get(i));
+            while (keys.get(slot) != EMPTY) {
+                slot = (slot + 1) & (keys.limit() - 1);
+            }
+            keys.put(slot, oldKeys.get(i));
+            counts.put(slot, oldCounts.get(i));
+        }
+    }
+
+    public int maxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Vocabulary words within distance insertions, deletions, substitutions
+     * and adjacent transpositions of term, with their distances. distance
+     * must not exceed maxDistance().
+     */
+    public Map<String, Integer> lookup(String term, int distance) {
+        Map<String, Integer> matches = new HashMap<String, Integer>();
+        if (distance < 0) return matches;
+        Set<Integer> seen = new HashSet<Integer>();
+        String prefix = term.length() > prefixLength ? term.substring(0, prefixLength) : term;
+        Set<String> deletions = new HashSet<String>();
+        deletions.add(prefix);
+        addDeletions(prefix, distance, deletions);
+        for (String deletion : deletions) {
+            int slot = find(hash(deletion));
+            if (slot < 0) continue;
+            int start = starts.get(slot);
+            for (int i = start; i < start + counts.get(slot); i++) {
+                int wordId = wordIds.get(i);
+                if (!seen.add(wordId)) continue;
+                String word = words[wordId];
+                if (Math.abs(word.length() - term.length()) > distance) continue;
+                int d = editDistance(word, term, distance);
+                if (d <= distance) matches.put(word, d);
+            }
+        }
+        return matches;
+    }
+
+    /* Optimal string alignment distance of a and b, or limit + 1 once it must exceed limit */
+    static int editDistance(String a, String b, int limit) {
+        int[][] dist = new int[a.length() + 1][b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            dist[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            dist[i][0] = i;
+            int min = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int d = Math.min(Math.min(dist[i - 1][j] + 1, dist[i][j - 1] + 1), dist[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1));
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d = Math.min(d, dist[i - 2][j - 2] + 1);
+                }
+                dist[i][j] = d;
+                min = Math.min(min, d);
+            }
+            if (min > limit) return limit + 1;
+        }
+        return dist[a.length()][b.length()];
+    }
+
+    /**
+     * Loads the deletion index from disk. The words are decoded, the table
+     * arrays are used in place in the mapped file.
+     */
+    public static DeletionIndex load() throws Exception {
+        try {
+            if (di_ == null) {
+                di_ = new DeletionIndex(ModelFile.open(Config.deletionIndexFile, MAGIC));
+            }
+        } catch (Exception e) {
+            throw new Exception("Unable to load deletion index.  You may have not run build corrector");
+        }
+        return di_;
+    }
+
+    /**
+     * Saves the index to disk in the ModelFile format: its parameters, the
+     * sorted words, then the table arrays as they are, so that load can probe
+     * them in place
+     */
+    public void save() throws Exception {
+        DataOutputStream out = ModelFile.create(Config.deletionIndexFile, MAGIC);
+        out.writeInt(maxDistance);
+        out.writeInt(prefixLength);
+        out.writeInt(numKeys);
+        ModelFile.writeStrings(out, words);
+        ModelFile.writeLongs(out, keys);
+        ModelFile.writeInts(out, starts);
+        ModelFile.writeInts(out, counts);
+        ModelFile.writeInts(out, wordIds);
+        out.close();
+    }
+
+    /**
+     * Creates the deletion index of the language model's vocabulary. This
+     * method should be used to create a new object rather than calling the
+     * constructor directly from outside this class
+     */
+    public static DeletionIndex create(LanguageModel languageModel) {
+        if (di_ == null) {
+            di_ = new DeletionIndex(languageModel.vocabulary(), Config.cgEditDistanceLimit, Config.diPrefixLength);
+        }
+        return di_;
+    }
+}
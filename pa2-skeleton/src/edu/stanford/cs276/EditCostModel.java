@@ -1,8 +1,6 @@
 package edu.stanford.cs276;
 
-import java.io.Serializable;
-
-public interface EditCostModel extends Serializable {
+public interface EditCostModel {
 	/**
 	 * This method calculates the P(R|Q) given the edit distance. Depending on the channel model
 	 * you implement (uniform or empirical), the details of this method will differ
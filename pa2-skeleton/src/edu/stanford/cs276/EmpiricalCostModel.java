@@ -1,12 +1,15 @@
 package edu.stanford.cs276;
 
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Scanner;
 
+import edu.stanford.cs276.util.ModelFile;
 import edu.stanford.cs276.util.Pair;
 
 /**
@@ -15,8 +18,6 @@ import edu.stanford.cs276.util.Pair;
  * P(R|Q)
  */
 public class EmpiricalCostModel implements EditCostModel {
-    private static final long serialVersionUID = 1L;
-
     private static final double correctProb = Config.ucmCorrectProb;
     private static final int INSERT = 0, DELETE = 1, SUBSTITUTE = 2, TRANSPOSE = 3;
 
@@ -24,6 +25,31 @@ public class EmpiricalCostModel implements EditCostModel {
     private Map<String, Integer> bicharCounts = new HashMap<String, Integer>();
     private Map<String, Integer> editCounts = new HashMap<String, Integer>();
 
+    /**
+     * Reads the counts written by write()
+     */
+    public EmpiricalCostModel(ByteBuffer buf) {
+        for (Map.Entry<String, Integer> entry : ModelFile.readCounts(buf).entrySet()) {
+            charCounts.put(entry.getKey().charAt(0), entry.getValue());
+        }
+        bicharCounts = ModelFile.readCounts(buf);
+        editCounts = ModelFile.readCounts(buf);
+    }
+
+    /**
+     * Writes the counts of chars, char bigrams and edits, each as a sorted
+     * string table and counts in the ModelFile format
+     */
+    public void write(DataOutputStream out) throws IOException {
+        Map<String, Integer> chars = new HashMap<String, Integer>();
+        for (Map.Entry<Character, Integer> entry : charCounts.entrySet()) {
+            chars.put(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        ModelFile.writeCounts(out, chars);
+        ModelFile.writeCounts(out, bicharCounts);
+        ModelFile.writeCounts(out, editCounts);
+    }
+
     public EmpiricalCostModel(String editsFile) throws IOException {
         BufferedReader input = new BufferedReader(new FileReader(editsFile));
         System.out.println("Constructing edit distance map...");
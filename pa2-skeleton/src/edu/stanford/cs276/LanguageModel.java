@@ -1,15 +1,18 @@
 package edu.stanford.cs276;
 
-import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Collection;
 
-import edu.stanford.cs276.util.Dictionary;
+import edu.stanford.cs276.util.LongIntMap;
+import edu.stanford.cs276.util.ModelFile;
+import edu.stanford.cs276.util.Tokenizer;
+import edu.stanford.cs276.util.Vocabulary;
 
 /**
  * LanguageModel class constructs a language model from the training corpus.
@@ -18,14 +21,22 @@ import edu.stanford.cs276.util.Dictionary;
  * This class uses the Singleton design pattern
  * (https://en.wikipedia.org/wiki/Singleton_pattern).
  */
-public class LanguageModel implements Serializable {
+public class LanguageModel {
 
-    private static final long serialVersionUID = 1L;
     private static LanguageModel lm_;
     private static double lambda = Config.lmSmoothingLambda;
+    // "LMOD", first int of the model file
+    private static final int MAGIC = 0x4c4d4f44;
 
-    private Dictionary unigram = new Dictionary();
-    private Dictionary bigram = new Dictionary();
+    // Unigram counts by term id, the ids following term order
+    private Vocabulary unigram;
+    // Bigrams grouped by first term: the second term ids after termId1 are
+    // bigramTermIds[bigramStarts[termId1], bigramStarts[termId1 + 1]), in
+    // increasing order, with their counts at the same indexes of bigramCounts.
+    // Loaded models keep these as views of the mapped model file.
+    private IntBuffer bigramStarts;
+    private IntBuffer bigramTermIds;
+    private IntBuffer bigramCounts;
 
     /*
      * Feel free to add more members here (e.g., a data structure that stores
@@ -40,8 +51,15 @@ public class LanguageModel implements Serializable {
         constructDictionaries(corpusFilePath);
     }
 
-    private String getBigramString(String term1, String term2) {
-        return term1 + " " + term2;
+    private LanguageModel(Vocabulary unigram, IntBuffer bigramStarts, IntBuffer bigramTermIds, IntBuffer bigramCounts) {
+        this.unigram = unigram;
+        this.bigramStarts = bigramStarts;
+        this.bigramTermIds = bigramTermIds;
+        this.bigramCounts = bigramCounts;
+    }
+
+    private static long getBigramKey(int termId1, int termId2) {
+        return ((long) termId1 << 32) | termId2;
     }
 
     /**
@@ -51,37 +69,130 @@ public class LanguageModel implements Serializable {
     public void constructDictionaries(String corpusFilePath) throws Exception {
 
         System.out.println("Constructing dictionaries...");
+        Vocabulary unigram = new Vocabulary();
+        LongIntMap bigram = new LongIntMap();
         File dir = new File(corpusFilePath);
+        Tokenizer tokenizer = new Tokenizer();
         for (File file : dir.listFiles()) {
             if (".".equals(file.getName()) || "..".equals(file.getName()) || file.isHidden()) {
                 continue; // Ignore the self and parent aliases.
             }
             System.out.printf("Reading data file %s ...\n", file.getName());
-            BufferedReader input = new BufferedReader(new FileReader(file));
-            String line = null;
-            while ((line = input.readLine()) != null) {
-                String[] tokens = line.split("\\s+");
-                for (int i = 0; i < tokens.length - 1; i++) {
-                    unigram.add(tokens[i]);
-                    bigram.add(getBigramString(tokens[i], tokens[i + 1]));
+            Reader input = new FileReader(file);
+            tokenizer.reset(input);
+            int prev = Vocabulary.NONE;
+            while (tokenizer.next()) {
+                int termId = unigram.add(tokenizer.term());
+                // Bigrams do not cross line breaks
+                if (!tokenizer.atLineStart()) {
+                    bigram.increment(getBigramKey(prev, termId));
                 }
-                unigram.add(tokens[tokens.length - 1]);
+                prev = termId;
             }
             input.close();
         }
+        group(unigram, bigram);
         System.out.println("Done.");
     }
 
+    /* Renumber the terms in sorted order and group the bigram counts by first term */
+    private void group(Vocabulary unigram, LongIntMap bigram) {
+        String[] terms = unigram.terms().toArray(new String[unigram.size()]);
+        Arrays.sort(terms);
+        int[] counts = new int[terms.length];
+        int[] newIds = new int[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            int termId = unigram.id(terms[i]);
+            newIds[termId] = i;
+            counts[i] = unigram.count(termId);
+        }
+
+        long[] keys = bigram.keys();
+        int[] starts = new int[terms.length + 1];
+        for (long key : keys) {
+            starts[newIds[(int) (key >>> 32)] + 1]++;
+        }
+        for (int i = 0; i < terms.length; i++) {
+            starts[i + 1] += starts[i];
+        }
+        /* Second term id and count packed in one long, so a group sorts by second term */
+        long[] entries = new long[keys.length];
+        int[] next = Arrays.copyOf(starts, terms.length);
+        for (long key : keys) {
+            entries[next[newIds[(int) (key >>> 32)]]++] = ((long) newIds[(int) key] << 32) | bigram.get(key);
+        }
+        int[] termIds2 = new int[keys.length];
+        int[] bigramCounts = new int[keys.length];
+        for (int i = 0; i < terms.length; i++) {
+            Arrays.sort(entries, starts[i], starts[i + 1]);
+        }
+        for (int i = 0; i < entries.length; i++) {
+            termIds2[i] = (int) (entries[i] >>> 32);
+            bigramCounts[i] = (int) entries[i];
+        }
+
+        this.unigram = new Vocabulary(terms, counts);
+        this.bigramStarts = IntBuffer.wrap(starts);
+        this.bigramTermIds = IntBuffer.wrap(termIds2);
+        this.bigramCounts = IntBuffer.wrap(bigramCounts);
+    }
+
+    /**
+     * The id of term, Vocabulary.NONE if it is not in the training corpus
+     */
+    public int getTermId(String term) {
+        return unigram.id(term);
+    }
+
     public double getUnigramProb(String term) {
-        return (double) unigram.count(term) / unigram.termCount();
+        return getUnigramProb(unigram.id(term));
+    }
+
+    public double getUnigramProb(int termId) {
+        return (double) unigram.count(termId) / unigram.termCount();
     }
 
     public double getBigramProb(String term1, String term2) {
-        return lambda * getUnigramProb(term2) + (1 - lambda) * bigram.count(getBigramString(term1, term2)) / unigram.count(term1);
+        return getBigramProb(unigram.id(term1), unigram.id(term2));
+    }
+
+    /**
+     * Interpolated bigram probability; an unknown first term leaves only the
+     * unigram part
+     */
+    public double getBigramProb(int termId1, int termId2) {
+        double prob = lambda * getUnigramProb(termId2);
+        if (termId1 == Vocabulary.NONE || termId2 == Vocabulary.NONE) return prob;
+        return prob + (1 - lambda) * getBigramCount(termId1, termId2) / unigram.count(termId1);
+    }
+
+    /* Binary search of termId2 in the group of termId1 */
+    private int getBigramCount(int termId1, int termId2) {
+        int lo = bigramStarts.get(termId1);
+        int hi = bigramStarts.get(termId1 + 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int termId = bigramTermIds.get(mid);
+            if (termId < termId2) {
+                lo = mid + 1;
+            } else if (termId > termId2) {
+                hi = mid - 1;
+            } else {
+                return bigramCounts.get(mid);
+            }
+        }
+        return 0;
     }
 
     public boolean isValidTerm(String term) {
-        return unigram.count(term) > 0;
+        return unigram.id(term) != Vocabulary.NONE;
+    }
+
+    /**
+     * Every term seen in the training corpus
+     */
+    public Collection<String> vocabulary() {
+        return unigram.terms();
     }
 
     public int noOfInvalidTerms(String query) {
@@ -96,22 +207,30 @@ public class LanguageModel implements Serializable {
     public double getQueryProb(String query) {
         String[] terms = query.split("\\s+");
         if (terms.length == 0) return 0.0;
-        double prob = getUnigramProb(terms[0]);
+        int prev = unigram.id(terms[0]);
+        double prob = getUnigramProb(prev);
         for (int i = 1; i < terms.length; i++) {
-            prob *= getBigramProb(terms[i - 1], terms[i]);
+            int termId = unigram.id(terms[i]);
+            prob *= getBigramProb(prev, termId);
+            prev = termId;
         }
         return prob;
     }
 
     /**
-     * Loads the language model object (and all associated data) from disk
+     * Loads the language model object (and all associated data) from disk.
+     * The terms are decoded into a Vocabulary, the bigram arrays are used in
+     * place in the mapped file.
      */
     public static LanguageModel load() throws Exception {
         try {
             if (lm_ == null) {
-                FileInputStream fiA = new FileInputStream(Config.languageModelFile);
-                ObjectInputStream oisA = new ObjectInputStream(fiA);
-                lm_ = (LanguageModel) oisA.readObject();
+                ByteBuffer buf = ModelFile.open(Config.languageModelFile, MAGIC);
+                String[] terms = ModelFile.readStrings(buf);
+                int[] counts = new int[terms.length];
+                ModelFile.mapInts(buf).get(counts);
+                Vocabulary unigram = new Vocabulary(terms, counts);
+                lm_ = new LanguageModel(unigram, ModelFile.mapInts(buf), ModelFile.mapInts(buf), ModelFile.mapInts(buf));
             }
         } catch (Exception e) {
             throw new Exception("Unable to load language model.  You may have not run build corrector");
@@ -120,13 +239,21 @@ public class LanguageModel implements Serializable {
     }
 
     /**
-     * Saves the object (and all associated data) to disk
+     * Saves the model to disk in the ModelFile format: the terms as a string
+     * table followed by their counts, then the three bigram arrays
      */
     public void save() throws Exception {
-        FileOutputStream saveFile = new FileOutputStream(Config.languageModelFile);
-        ObjectOutputStream save = new ObjectOutputStream(saveFile);
-        save.writeObject(this);
-        save.close();
+        int[] counts = new int[unigram.size()];
+        for (int termId = 0; termId < counts.length; termId++) {
+            counts[termId] = unigram.count(termId);
+        }
+        DataOutputStream out = ModelFile.create(Config.languageModelFile, MAGIC);
+        ModelFile.writeStrings(out, unigram.terms().toArray(new String[counts.length]));
+        ModelFile.writeInts(out, IntBuffer.wrap(counts));
+        ModelFile.writeInts(out, bigramStarts);
+        ModelFile.writeInts(out, bigramTermIds);
+        ModelFile.writeInts(out, bigramCounts);
+        out.close();
     }
 
     /**
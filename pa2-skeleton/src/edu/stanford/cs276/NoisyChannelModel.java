@@ -1,10 +1,9 @@
 package edu.stanford.cs276;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
+import edu.stanford.cs276.util.ModelFile;
 
 /**
  * NoisyChannelModel class constructs a channel model (which is a model of
@@ -15,10 +14,11 @@ import java.io.Serializable;
  * This class uses the Singleton design pattern
  * (https://en.wikipedia.org/wiki/Singleton_pattern).
  */
-public class NoisyChannelModel implements Serializable {
+public class NoisyChannelModel {
 
-    private static final long serialVersionUID = 1L;
     private static NoisyChannelModel ncm_ = null;
+    // "NCMD", first int of the model file
+    private static final int MAGIC = 0x4e434d44;
     EditCostModel ecm_ = null;
 
     EmpiricalCostModel empiricalCostModel = null;
@@ -41,6 +41,11 @@ public class NoisyChannelModel implements Serializable {
         uniformCostModel = new UniformCostModel();
     }
 
+    private NoisyChannelModel(EmpiricalCostModel empiricalCostModel) {
+        this.empiricalCostModel = empiricalCostModel;
+        uniformCostModel = new UniformCostModel();
+    }
+
     /**
      * Creates a new NoisyChannelModel object from the query corpus. This method
      * should be used to create a new object rather than calling the constructor
@@ -60,10 +65,8 @@ public class NoisyChannelModel implements Serializable {
         try {
             // Don't load from disk if it's already been loaded.
             if (ncm_ == null) {
-                FileInputStream fiA = new FileInputStream(Config.noisyChannelFile);
-                ObjectInputStream oisA = new ObjectInputStream(fiA);
-                ncm_ = (NoisyChannelModel) oisA.readObject();
-                oisA.close();
+                ByteBuffer buf = ModelFile.open(Config.noisyChannelFile, MAGIC);
+                ncm_ = new NoisyChannelModel(new EmpiricalCostModel(buf));
             }
         } catch (Exception e) {
             throw new Exception("Unable to load noise channel model.  You may have not run build corrector");
@@ -72,13 +75,13 @@ public class NoisyChannelModel implements Serializable {
     }
 
     /**
-     * Saves the object (and all associated data e.g. EditCostModel) to disk
+     * Saves the model to disk in the ModelFile format; only the empirical
+     * model has anything to save
      */
     public void save() throws Exception {
-        FileOutputStream saveFile = new FileOutputStream(Config.noisyChannelFile);
-        ObjectOutputStream save = new ObjectOutputStream(saveFile);
-        save.writeObject(this);
-        save.close();
+        DataOutputStream out = ModelFile.create(Config.noisyChannelFile, MAGIC);
+        empiricalCostModel.write(out);
+        out.close();
     }
 
     /**
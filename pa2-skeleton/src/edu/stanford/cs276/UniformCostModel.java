@@ -7,7 +7,6 @@ package edu.stanford.cs276;
  */
 public class UniformCostModel implements EditCostModel {
 
-    private static final long serialVersionUID = 1L;
     private static final double errorProb = Config.ucmErrorProb;
     private static final double correctProb = Config.ucmCorrectProb;
 
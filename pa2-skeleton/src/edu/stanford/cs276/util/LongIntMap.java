@@ -0,0 +1,90 @@
+package edu.stanford.cs276.util;
+
+import java.util.Arrays;
+
+/**
+ * Counts keyed by non-negative longs, in open addressing arrays with linear
+ * probing: no boxing and no entry objects, about 24 bytes a key at most.
+ */
+public class LongIntMap {
+
+    private static final long EMPTY = -1;
+
+    private long[] keys = newKeys(32);
+    private int[] values = new int[32];
+    private int size = 0;
+
+    private static long[] newKeys(int length) {
+        long[] keys = new long[length];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32)) & (keys.length - 1);
+    }
+
+    /* Slot holding key, or the empty slot where it belongs */
+    private int find(long key) {
+        int slot = slot(key);
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        return slot;
+    }
+
+    /**
+     * Add one to the count of key
+     */
+    public void increment(long key) {
+        int slot = find(key);
+        if (keys[slot] == EMPTY) {
+            if (2 * (size + 1) > keys.length) {
+                rehash(2 * keys.length);
+                slot = find(key);
+            }
+            keys[slot] = key;
+            size++;
+        }
+        values[slot]++;
+    }
+
+    /**
+     * The count of key, 0 if it was never incremented
+     */
+    public int get(long key) {
+        int slot = find(key);
+        return keys[slot] == EMPTY ? 0 : values[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The keys, in increasing order
+     */
+    public long[] keys() {
+        long[] sorted = new long[size];
+        int n = 0;
+        for (long key : keys) {
+            if (key != EMPTY) sorted[n++] = key;
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private void rehash(int length) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = newKeys(length);
+        values = new int[length];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+            int slot = find(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package edu.stanford.cs276.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary model files, memory mapped when read. A file starts with a magic
+ * number naming the model and the format VERSION, followed by the model's
+ * sections:
+ *
+ * - strings: count n, n + 1 int offsets into the UTF-8 bytes of all the
+ * strings, the byte count, then the bytes, padded to a multiple of 8 bytes
+ * from the start of the file; string tables are written sorted
+ * - ints and longs: count, then the values, longs starting on a multiple of
+ * 8 bytes
+ *
+ * All numbers are big endian. Int and long sections are not copied on
+ * reading: mapInts and mapLongs return views of the mapped file, so a model
+ * can answer lookups straight from the page cache. Strings have to be
+ * decoded, so string tables are read into the heap.
+ */
+public class ModelFile {
+
+    public static final int VERSION = 2;
+    private static final int ALIGNMENT = 8;
+
+    public static DataOutputStream create(String file, int magic) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        out.writeInt(magic);
+        out.writeInt(VERSION);
+        return out;
+    }
+
+    /**
+     * Maps file, positioned after the header, failing unless it holds the
+     * model named by magic in the current version
+     */
+    public static ByteBuffer open(String file, int magic) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer buf;
+        try {
+            FileChannel fc = raf.getChannel();
+            buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        } finally {
+            raf.close();
+        }
+        if (buf.remaining() < 8 || buf.getInt() != magic) throw new IOException(file + " is not the expected model file");
+        int version = buf.getInt();
+        if (version != VERSION) throw new IOException(file + " has format version " + version + ", expected " + VERSION);
+        return buf;
+    }
+
+    public static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        byte[][] bytes = new byte[strings.length][];
+        out.writeInt(strings.length);
+        int offset = 0;
+        out.writeInt(offset);
+        for (int i = 0; i < strings.length; i++) {
+            bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+            offset += bytes[i].length;
+            out.writeInt(offset);
+        }
+        out.writeInt(offset);
+        for (byte[] b : bytes) {
+            out.write(b);
+        }
+        align(out);
+    }
+
+    /* Pad with zeros to a multiple of ALIGNMENT bytes from the start of the file */
+    private static void align(DataOutputStream out) throws IOException {
+        while (out.size() % ALIGNMENT != 0) {
+            out.write(0);
+        }
+    }
+
+    private static void align(ByteBuffer buf) {
+        buf.position((buf.position() + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT);
+    }
+
+    public static String[] readStrings(ByteBuffer buf) {
+        IntBuffer offsets = mapInts(buf, buf.getInt() + 1);
+        int length = buf.getInt();
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        String[] strings = new String[offsets.limit() - 1];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = new String(bytes, offsets.get(i), offsets.get(i + 1) - offsets.get(i), StandardCharsets.UTF_8);
+        }
+        align(buf);
+        return strings;
+    }
+
+    public static void writeInts(DataOutputStream out, IntBuffer values) throws IOException {
+        out.writeInt(values.limit());
+        for (int i = 0; i < values.limit(); i++) {
+            out.writeInt(values.get(i));
+        }
+    }
+
+    /**
+     * View of an int section of the mapped file, which buf moves past
+     */
+    public static IntBuffer mapInts(ByteBuffer buf) {
+        return mapInts(buf, buf.getInt());
+    }
+
+    private static IntBuffer mapInts(ByteBuffer buf, int count) {
+        ByteBuffer section = buf.slice();
+        section.limit(count * 4);
+        buf.position(buf.position() + count * 4);
+        return section.asIntBuffer();
+    }
+
+    public static void writeLongs(DataOutputStream out, LongBuffer values) throws IOException {
+        out.writeInt(values.limit());
+        align(out);
+        for (int i = 0; i < values.limit(); i++) {
+            out.writeLong(values.get(i));
+        }
+    }
+
+    /**
+     * View of a long section of the mapped file, which buf moves past
+     */
+    public static LongBuffer mapLongs(ByteBuffer buf) {
+        int count = buf.getInt();
+        align(buf);
+        ByteBuffer section = buf.slice();
+        section.limit(count * 8);
+        buf.position(buf.position() + count * 8);
+        return section.asLongBuffer();
+    }
+
+    /**
+     * Writes the keys of counts as a sorted string table, then their counts
+     */
+    public static void writeCounts(DataOutputStream out, Map<String, Integer> counts) throws IOException {
+        String[] keys = counts.keySet().toArray(new String[counts.size()]);
+        Arrays.sort(keys);
+        int[] values = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = counts.get(keys[i]);
+        }
+        writeStrings(out, keys);
+        writeInts(out, IntBuffer.wrap(values));
+    }
+
+    /**
+     * Reads what writeCounts wrote into a map; meant for small tables such
+     * as the channel model's, the counts are copied
+     */
+    public static Map<String, Integer> readCounts(ByteBuffer buf) {
+        String[] keys = readStrings(buf);
+        IntBuffer values = mapInts(buf);
+        Map<String, Integer> counts = new HashMap<String, Integer>(2 * keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            counts.put(keys[i], values.get(i));
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,162 @@
+package edu.stanford.cs276.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Splits a character stream into whitespace separated tokens, the same ones
+ * line.trim().split("\\s+") finds on each line, without regexes or per line
+ * arrays. The reader is scanned through a reusable char buffer and each token
+ * is a span of that buffer.
+ *
+ * term() turns the current span into a String through an intern table, so a
+ * term seen before costs no allocation and always comes back as the same
+ * instance. Reuse one tokenizer across files with reset() to share the table.
+ * The table is the tokenizer's own rather than the caller's dictionary: the
+ * callers map terms to different things (term ids, counts, document
+ * frequencies) and can only look them up by String, while the table is probed
+ * with the span itself, which is what saves the allocation.
+ */
+public class Tokenizer {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int INITIAL_TABLE_SIZE = 1 << 10;
+
+    private final boolean lowerCase;
+    private Reader reader;
+
+    /* Buffered chars are buf[0, limit), the current token is buf[start, pos) */
+    private char[] buf = new char[BUFFER_SIZE];
+    private int limit = 0;
+    private int start = 0;
+    private int pos = 0;
+    private boolean atStart = true;
+    private boolean lineStart = false;
+
+    /* Open addressing intern table, hashes are String.hashCode() values */
+    private String[] terms = new String[INITIAL_TABLE_SIZE];
+    private int[] hashes = new int[INITIAL_TABLE_SIZE];
+    private int numTerms = 0;
+
+    public Tokenizer() {
+        this(false);
+    }
+
+    /**
+     * @param lowerCase
+     *            lower case every token as it is scanned
+     */
+    public Tokenizer(boolean lowerCase) {
+        this.lowerCase = lowerCase;
+    }
+
+    /** Start tokenizing a new reader, keeping the buffer and intern table */
+    public void reset(Reader reader) {
+        this.reader = reader;
+        limit = start = pos = 0;
+        atStart = true;
+    }
+
+    /* Same characters as the regex \s */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /*
+     * Read more input after the current token, moving the token to the
+     * front of the buffer (or growing it) to make room
+     */
+    private boolean fill() throws IOException {
+        int keep = limit - start;
+        if (start > 0) {
+            System.arraycopy(buf, start, buf, 0, keep);
+        } else if (keep == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        pos -= start;
+        start = 0;
+        limit = keep;
+        int n = reader.read(buf, limit, buf.length - limit);
+        if (n <= 0) return false;
+        limit += n;
+        return true;
+    }
+
+    /** Move to the next token, returns false at the end of the input */
+    public boolean next() throws IOException {
+        lineStart = atStart;
+        atStart = false;
+        while (true) {
+            if (pos == limit) {
+                start = pos;
+                if (!fill()) return false;
+            }
+            char c = buf[pos];
+            if (!isSpace(c)) break;
+            if (c == '\n' || c == '\r') lineStart = true;
+            pos++;
+        }
+
+        start = pos;
+        while (pos < limit || fill()) {
+            char c = buf[pos];
+            if (isSpace(c)) break;
+            if (lowerCase) buf[pos] = Character.toLowerCase(c);
+            pos++;
+        }
+        return true;
+    }
+
+    /** Whether the current token is the first one on its line */
+    public boolean atLineStart() {
+        return lineStart;
+    }
+
+    /** The current token, interned */
+    public String term() {
+        int length = pos - start;
+        int h = 0;
+        for (int i = start; i < pos; i++) {
+            h = 31 * h + buf[i];
+        }
+
+        int mask = terms.length - 1;
+        int slot = (h ^ (h >>> 16)) & mask;
+        for (String term = terms[slot]; term != null; term = terms[slot]) {
+            if (hashes[slot] == h && term.length() == length && matches(term)) return term;
+            slot = (slot + 1) & mask;
+        }
+
+        String term = new String(buf, start, length);
+        terms[slot] = term;
+        hashes[slot] = h;
+        if (++numTerms * 2 > terms.length) rehash();
+        return term;
+    }
+
+    private boolean matches(String term) {
+        for (int i = 0; i < term.length(); i++) {
+            if (term.charAt(i) != buf[start + i]) return false;
+        }
+        return true;
+    }
+
+    private void rehash() {
+        String[] oldTerms = terms;
+        int[] oldHashes = hashes;
+        terms = new String[oldTerms.length * 2];
+        hashes = new int[oldTerms.length * 2];
+        int mask = terms.length - 1;
+        for (int i = 0; i < oldTerms.length; i++) {
+            if (oldTerms[i] == null) continue;
+            int h = oldHashes[i];
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (terms[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            terms[slot] = oldTerms[i];
+            hashes[slot] = h;
+        }
+    }
+}
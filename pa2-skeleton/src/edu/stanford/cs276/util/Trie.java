@@ -0,0 +1,190 @@
+package edu.stanford.cs276.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Character trie over a vocabulary, stored as flat arrays: every node has a
+ * label, its first child and its next sibling, with siblings in char order.
+ *
+ * search() walks the trie with a bounded Damerau-Levenshtein automaton (one
+ * row of the optimal string alignment table per trie depth) and returns the
+ * phrases within a given edit distance of a query: sequences of vocabulary
+ * words joined by single spaces, so that splitting and joining words count
+ * as an edit of a space like any other. A branch is cut as soon as every
+ * entry of its row exceeds the limit, so only the few nodes near the query
+ * are ever visited, and everything returned is made of real words.
+ */
+public class Trie {
+
+    private static final int NONE = -1;
+    private static final char SPACE = ' ';
+
+    private char[] labels;
+    private int[] firstChild;
+    private int[] nextSibling;
+    // Last child added to each node, only needed while building
+    private int[] lastChild;
+    private boolean[] terminal;
+    private int numNodes = 0;
+
+    /**
+     * Build the trie of words. Words with whitespace in them could never be
+     * told apart from a phrase and are left out.
+     */
+    public Trie(Collection<String> words) {
+        String[] sorted = words.toArray(new String[words.size()]);
+        Arrays.sort(sorted);
+        int capacity = 1;
+        for (String word : sorted) {
+            capacity += word.length();
+        }
+        labels = new char[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        lastChild = new int[capacity];
+        terminal = new boolean[capacity];
+        newNode((char) 0);
+
+        for (String word : sorted) {
+            if (word.isEmpty() || hasWhitespace(word)) continue;
+            int node = 0;
+            for (int i = 0; i < word.length(); i++) {
+                char c = word.charAt(i);
+                /* Words come in order, so a shared prefix always ends in the last child */
+                int child = lastChild[node];
+                if (child == NONE || labels[child] != c) {
+                    int next = newNode(c);
+                    if (child == NONE) {
+                        firstChild[node] = next;
+                    } else {
+                        nextSibling[child] = next;
+                    }
+                    lastChild[node] = next;
+                    child = next;
+                }
+                node = child;
+            }
+            terminal[node] = true;
+        }
+
+        labels = Arrays.copyOf(labels, numNodes);
+        firstChild = Arrays.copyOf(firstChild, numNodes);
+        nextSibling = Arrays.copyOf(nextSibling, numNodes);
+        terminal = Arrays.copyOf(terminal, numNodes);
+        lastChild = null;
+    }
+
+    private int newNode(char label) {
+        labels[numNodes] = label;
+        firstChild[numNodes] = NONE;
+        nextSibling[numNodes] = NONE;
+        lastChild[numNodes] = NONE;
+        return numNodes++;
+    }
+
+    private static boolean hasWhitespace(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.isWhitespace(word.charAt(i))) return true;
+        }
+        return false;
+    }
+
+    public int size() {
+        return numNodes;
+    }
+
+    public boolean contains(String word) {
+        int node = 0;
+        for (int i = 0; i < word.length() && node != NONE; i++) {
+            node = child(node, word.charAt(i));
+        }
+        return node != NONE && terminal[node];
+    }
+
+    private int child(int node, char c) {
+        for (int child = firstChild[node]; child != NONE && labels[child] <= c; child = nextSibling[child]) {
+            if (labels[child] == c) return child;
+        }
+        return NONE;
+    }
+
+    /** A phrase of vocabulary words and its edit distance from the query */
+    public static class Match {
+        public final String phrase;
+        public final int distance;
+
+        Match(String phrase, int distance) {
+            this.phrase = phrase;
+            this.distance = distance;
+        }
+    }
+
+    /** State of one search, rows[d] is the table row after d candidate chars */
+    private class Search {
+        final String query;
+        final int maxDistance;
+        final int[][] rows;
+        final char[] candidate;
+        final List<Match> matches = new ArrayList<Match>();
+
+        Search(String query, int maxDistance) {
+            this.query = query;
+            this.maxDistance = maxDistance;
+            int maxLength = query.length() + maxDistance;
+            rows = new int[maxLength + 1][query.length() + 1];
+            candidate = new char[maxLength];
+            for (int j = 0; j <= query.length(); j++) {
+                rows[0][j] = j;
+            }
+        }
+
+        /* Visit every child of node, and the root again after a space if node ends a word */
+        void walk(int node, int depth) {
+            if (depth == candidate.length) return;
+            for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+                step(child, labels[child], depth);
+            }
+            if (terminal[node] && depth > 0) {
+                step(0, SPACE, depth);
+            }
+        }
+
+        /* Extend the candidate by c, landing on node */
+        void step(int node, char c, int depth) {
+            int n = query.length();
+            int[] prev = rows[depth];
+            int[] row = rows[depth + 1];
+            candidate[depth] = c;
+            row[0] = depth + 1;
+            int min = row[0];
+            for (int j = 1; j <= n; j++) {
+                char q = query.charAt(j - 1);
+                int d = Math.min(Math.min(prev[j] + 1, row[j - 1] + 1), prev[j - 1] + (q == c ? 0 : 1));
+                if (depth > 0 && j > 1 && c == query.charAt(j - 2) && candidate[depth - 1] == q) {
+                    d = Math.min(d, rows[depth - 1][j - 2] + 1);
+                }
+                row[j] = d;
+                min = Math.min(min, d);
+            }
+            if (min > maxDistance) return;
+            if (terminal[node] && row[n] <= maxDistance) {
+                matches.add(new Match(new String(candidate, 0, depth + 1), row[n]));
+            }
+            walk(node, depth + 1);
+        }
+    }
+
+    /**
+     * Every phrase of words in the trie, joined by single spaces, at most
+     * maxDistance insertions, deletions, substitutions and adjacent
+     * transpositions away from query
+     */
+    public List<Match> search(String query, int maxDistance) {
+        Search search = new Search(query, maxDistance);
+        search.walk(0, 0);
+        return search.matches;
+    }
+}
@@ -0,0 +1,141 @@
+package edu.stanford.cs276.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Terms numbered 0, 1, ... in the order they were first added, or as given
+ * to the constructor, with their counts. A term is kept once, in the array
+ * of terms by id; the lookup table from term to id is an open addressing
+ * array of ids.
+ */
+public class Vocabulary {
+
+    public static final int NONE = -1;
+
+    private String[] terms = new String[16];
+    private int[] counts = new int[16];
+    private int size = 0;
+    private long termCount = 0;
+
+    // Ids by hash of their term, NONE in empty slots
+    private int[] table = newTable(32);
+
+    public Vocabulary() {
+    }
+
+    /**
+     * The vocabulary where terms[i], counted counts[i] times, has id i.
+     * terms must not repeat.
+     */
+    public Vocabulary(String[] terms, int[] counts) {
+        this.terms = terms;
+        this.counts = counts;
+        size = terms.length;
+        for (int count : counts) {
+            termCount += count;
+        }
+        rehash(tableLength(size));
+    }
+
+    private static int[] newTable(int length) {
+        int[] table = new int[length];
+        Arrays.fill(table, NONE);
+        return table;
+    }
+
+    private int slot(String term) {
+        int h = term.hashCode() * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & (table.length - 1);
+    }
+
+    /**
+     * Count one more occurrence of term, returns its id
+     */
+    public int add(String term) {
+        int id = id(term);
+        if (id == NONE) {
+            if (size == terms.length) {
+                terms = Arrays.copyOf(terms, Math.max(16, 2 * size));
+                counts = Arrays.copyOf(counts, terms.length);
+            }
+            id = size++;
+            terms[id] = term;
+            if (2 * size > table.length) {
+                rehash(2 * table.length);
+            } else {
+                insert(id);
+            }
+        }
+        counts[id]++;
+        termCount++;
+        return id;
+    }
+
+    private void insert(int id) {
+        int slot = slot(terms[id]);
+        while (table[slot] != NONE) {
+            slot = (slot + 1) & (table.length - 1);
+        }
+        table[slot] = id;
+    }
+
+    private void rehash(int length) {
+        table = newTable(length);
+        for (int id = 0; id < size; id++) {
+            insert(id);
+        }
+    }
+
+    /**
+     * The id of term, or NONE if it was never added
+     */
+    public int id(String term) {
+        for (int slot = slot(term);; slot = (slot + 1) & (table.length - 1)) {
+            int id = table[slot];
+            if (id == NONE || terms[id].equals(term)) return id;
+        }
+    }
+
+    public String term(int id) {
+        return terms[id];
+    }
+
+    public int count(int id) {
+        return id == NONE ? 0 : counts[id];
+    }
+
+    public int count(String term) {
+        return count(id(term));
+    }
+
+    /**
+     * Number of distinct terms
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of occurrences of all terms
+     */
+    public long termCount() {
+        return termCount;
+    }
+
+    /**
+     * The terms, in id order
+     */
+    public List<String> terms() {
+        return Collections.unmodifiableList(Arrays.asList(terms).subList(0, size));
+    }
+
+    private static int tableLength(int size) {
+        int length = 32;
+        while (length < 2 * size) {
+            length *= 2;
+        }
+        return length;
+    }
+}
@@ -1,26 +1,44 @@
 package edu.stanford.cs276;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import sun.applet.Main;
 
+import edu.stanford.cs276.util.Tokenizer;
+
 /**
  * This class is used to 1) load training data from files 2) build idf from data
  * collections in PA1.
  */
 public class LoadHandler {
 
+	/*
+	 * Idf file format: "IDFS", the version, the number of terms n, n + 1 int
+	 * offsets into the UTF-8 bytes of the sorted terms, the byte count, the
+	 * bytes, then the n idfs as doubles, all big endian. The file is mapped
+	 * and read with bulk gets instead of object deserialization.
+	 */
+	private static final int IDF_MAGIC = 0x49444653;
+	private static final int IDF_VERSION = 1;
+
 	/**
 	 * Loads the training data.
 	 * 
@@ -94,7 +112,8 @@ public class LoadHandler {
 	}
 
 	/**
-	 * Unserializes the term-doc counts from file.
+	 * Loads the idfs from file. Files from before the binary format, holding
+	 * a serialized map, are still read.
 	 * 
 	 * @param idfFile
 	 *            the file containing the idfs.
@@ -103,11 +122,39 @@ public class LoadHandler {
 	public static Map<String, Double> loadDFs(String idfFile) {
 		Map<String, Double> termDocCount = null;
 		try {
-			FileInputStream fis = new FileInputStream(idfFile);
-			ObjectInputStream ois = new ObjectInputStream(fis);
-			termDocCount = (HashMap<String, Double>) ois.readObject();
-			ois.close();
-			fis.close();
+			ByteBuffer buf;
+			RandomAccessFile raf = new RandomAccessFile(idfFile, "r");
+			try {
+				FileChannel fc = raf.getChannel();
+				buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+			} finally {
+				raf.close();
+			}
+			if (buf.remaining() < 8 || buf.getInt() != IDF_MAGIC) {
+				FileInputStream fis = new FileInputStream(idfFile);
+				ObjectInputStream ois = new ObjectInputStream(fis);
+				termDocCount = (HashMap<String, Double>) ois.readObject();
+				ois.close();
+				fis.close();
+				return termDocCount;
+			}
+			int version = buf.getInt();
+			if (version != IDF_VERSION)
+				throw new IOException(idfFile + " has format version " + version + ", expected " + IDF_VERSION);
+
+			int[] offsets = new int[buf.getInt() + 1];
+			buf.asIntBuffer().get(offsets);
+			buf.position(buf.position() + offsets.length * 4);
+			byte[] bytes = new byte[buf.getInt()];
+			buf.get(bytes);
+			double[] idfs = new double[offsets.length - 1];
+			buf.asDoubleBuffer().get(idfs);
+
+			termDocCount = new HashMap<String, Double>(2 * idfs.length);
+			for (int i = 0; i < idfs.length; i++) {
+				String term = new String(bytes, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+				termDocCount.put(term, idfs[i]);
+			}
 		} catch (IOException | ClassNotFoundException ioe) {
 			ioe.printStackTrace();
 			return null;
@@ -115,6 +162,37 @@ public class LoadHandler {
 		return termDocCount;
 	}
 
+	/**
+	 * Writes the idfs to file in the binary format read by loadDFs.
+	 * 
+	 * @param idfs
+	 *            the idf of every term.
+	 * @param idfFile
+	 *            the file to write.
+	 */
+	public static void saveDFs(Map<String, Double> idfs, String idfFile) throws IOException {
+		String[] terms = idfs.keySet().toArray(new String[idfs.size()]);
+		Arrays.sort(terms);
+		byte[][] bytes = new byte[terms.length][];
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(idfFile), 1 << 16));
+		out.writeInt(IDF_MAGIC);
+		out.writeInt(IDF_VERSION);
+		out.writeInt(terms.length);
+		int offset = 0;
+		out.writeInt(offset);
+		for (int i = 0; i < terms.length; i++) {
+			bytes[i] = terms[i].getBytes(StandardCharsets.UTF_8);
+			offset += bytes[i].length;
+			out.writeInt(offset);
+		}
+		out.writeInt(offset);
+		for (byte[] b : bytes)
+			out.write(b);
+		for (String term : terms)
+			out.writeDouble(idfs.get(term));
+		out.close();
+	}
+
 	/**
 	 * Builds document frequencies and then serializes to file.
 	 * 
@@ -141,6 +219,8 @@ public class LoadHandler {
 		// Count number of documents in which each term appears
 		Map<String, Integer> termDocCount = new HashMap<String, Integer>();
 		Map<String, Double> termIdfValue = new HashMap<String, Double>();
+		// Lower cases tokens, shared across files so each term is interned once
+		Tokenizer tokenizer = new Tokenizer(true);
 
 		for (File block : dirlist) {
 			if (block.isHidden() || !block.isDirectory()) {
@@ -151,16 +231,12 @@ public class LoadHandler {
 				if (file.isHidden())
 					continue;
 				++totalDocCount;
-				BufferedReader reader = new BufferedReader(new FileReader(file));
-				String line;
-				while ((line = reader.readLine()) != null) {
-					String[] tokens = line.trim().toLowerCase().split("\\s+");
-					for (String token : tokens) {
-						if (!termDocCount.containsKey(token)) {
-							termDocCount.put(token, 0);
-						}
-						termDocCount.put(token, termDocCount.get(token) + 1);
-					}
+				Reader reader = new FileReader(file);
+				tokenizer.reset(reader);
+				while (tokenizer.next()) {
+					String token = tokenizer.term();
+					Integer count = termDocCount.get(token);
+					termDocCount.put(token, count == null ? 1 : count + 1);
 				}
 				reader.close();
 			}
@@ -174,11 +250,7 @@ public class LoadHandler {
 
 		// Save to file
 		try {
-			FileOutputStream fos = new FileOutputStream(idfFile);
-			ObjectOutputStream oos = new ObjectOutputStream(fos);
-			oos.writeObject(termIdfValue);
-			oos.close();
-			fos.close();
+			saveDFs(termIdfValue, idfFile);
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 		}